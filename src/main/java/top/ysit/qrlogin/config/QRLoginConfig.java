@@ -2,6 +2,9 @@ package top.ysit.qrlogin.config;
 
 import org.keycloak.models.IdentityProviderModel;
 import top.ysit.qrlogin.core.security.SignatureConfig;
+import top.ysit.qrlogin.core.security.SigningKey;
+
+import java.security.SignatureException;
 
 public class QRLoginConfig extends IdentityProviderModel {
     public static final String PROVIDER_ID = "qrlogin";
@@ -16,11 +19,51 @@ public class QRLoginConfig extends IdentityProviderModel {
         return getInt("sessionTtlSeconds", 120);
     }
 
+    public String getQrPayloadFormat() { // json | compact
+        return get("qrPayloadFormat", "json");
+    }
+
+    public String getQrImageFormat() { // png | svg | modules
+        return get("qrImageFormat", "png");
+    }
+
+    public boolean isQrWarmPool() { // 绑定会话后在后台线程渲染二维码
+        return Boolean.parseBoolean(get("qrWarmPool", "false"));
+    }
+
+    public int getQrWarmPoolMaxSize() { // 后台渲染队列长度上限
+        return getInt("qrWarmPoolMaxSize", 256);
+    }
+
+    public boolean isQrImageInline() { // 图片以数据 URL 内嵌在 JSON 中，否则返回 qr/image 地址
+        return Boolean.parseBoolean(get("qrImageInline", "false"));
+    }
+
     public int getPollIntervalMs() { // 轮询间隔（前端提示用）
         return getInt("pollIntervalMs", 1500);
     }
 
-    public String getStoreType() { // redis | memory
+    public int getPollMaxIntervalMs() { // 服务端建议的轮询间隔上限
+        return getInt("pollMaxIntervalMs", 6000);
+    }
+
+    public int getPollBusyThreshold() { // 本节点进行中的状态请求超过该值时放慢轮询
+        return getInt("pollBusyThreshold", 200);
+    }
+
+    public int getLongPollTimeoutSeconds() { // 长轮询最长挂起时间
+        return getInt("longPollTimeoutSeconds", 25);
+    }
+
+    public int getMaxSessions() { // 内存存储最多同时保留的会话数
+        return getInt("maxSessions", 10000);
+    }
+
+    public int getMaxSessionsPerBrowser() { // 同一浏览器认证会话最多持有的待扫码二维码数
+        return getInt("maxSessionsPerBrowser", 3);
+    }
+
+    public String getStoreType() { // redis | memory | infinispan
         return get("storeType", "redis");
     }
 
@@ -32,10 +75,99 @@ public class QRLoginConfig extends IdentityProviderModel {
         return get("redisNamespace", "qrlogin:");
     }
 
+    public int getRedisPoolSize() { // Redis 连接池大小
+        return getInt("redisPoolSize", 8);
+    }
+
+    public long getRedisTimeoutMs() { // Redis 命令超时
+        return getLong("redisTimeoutMs", 2000);
+    }
+
+    public int getInfinispanOwners() { // 分布式缓存副本数
+        return getInt("infinispanOwners", 2);
+    }
+
+    public long getNearCacheMaxAgeMs() { // 远程存储近端缓存的最长复用时间，兜底丢失的集群通知
+        return getLong("nearCacheMaxAgeMs", 5000);
+    }
+
+    public String getTokenVerification() { // local | introspection
+        return get("tokenVerification", "local");
+    }
+
+    public String getAppClientId() { // App 令牌须签发给的客户端，为空时取身份提供者的 Client ID
+        String appClientId = get("appClientId", "");
+        return appClientId == null || appClientId.isBlank() ? getClientId() : appClientId;
+    }
+
+    public String getIntrospectionUrl() { // 远程 introspect 地址，为空时使用当前 realm
+        return get("introspectionUrl", null);
+    }
+
+    public long getIntrospectionConnectTimeoutMs() { // introspect 建连超时
+        return getLong("introspectionConnectTimeoutMs", 2000);
+    }
+
+    public long getIntrospectionTimeoutMs() { // introspect 请求超时
+        return getLong("introspectionTimeoutMs", 3000);
+    }
+
+    public int getTokenCacheTtlSeconds() { // 令牌有效结果最长缓存时间，不超过令牌 exp
+        return getInt("tokenCacheTtlSeconds", 30);
+    }
+
+    public int getTokenCacheNegativeTtlSeconds() { // 令牌无效结果缓存时间
+        return getInt("tokenCacheNegativeTtlSeconds", 5);
+    }
+
+    public int getVerifyMaxConcurrent() { // 同时进行的令牌校验数上限
+        return getInt("verifyMaxConcurrent", 16);
+    }
+
+    public long getVerifyMaxWaitMs() { // 等待校验并发许可或进行中校验的最长时间
+        return getLong("verifyMaxWaitMs", 100);
+    }
+
+    public int getBreakerFailureThreshold() { // 连续失败多少次后熔断
+        return getInt("breakerFailureThreshold", 5);
+    }
+
+    public int getBreakerOpenSeconds() { // 熔断后多久进入半开探测
+        return getInt("breakerOpenSeconds", 10);
+    }
+
     public String getHmacSecret() { // App 签名校验
         return get("hmacSecret", "change-me");
     }
 
+    public String getHmacKeys() { // 密钥环，每行 kid=secret[|notBefore[|notAfter]]，配置后取代 hmacSecret
+        return get("hmacKeys", "");
+    }
+
+    public String getHmacActiveKid() { // 服务端签名使用的密钥ID，为空时取密钥环第一把
+        return get("hmacActiveKid", "");
+    }
+
+    public String getDeviceSignature() { // off | optional | required，设备私钥签名代替共享 HMAC
+        return get("deviceSignature", "off");
+    }
+
+    public int getDeviceKeyCacheSize() { // 内存中缓存的已解析设备公钥数
+        return getInt("deviceKeyCacheSize", 10000);
+    }
+
+    public boolean isReplayProtection() { // 拒绝时间窗口内重复使用的签名
+        return Boolean.parseBoolean(get("replayProtection", "true"));
+    }
+
+    public String getReplayCacheType() { // local | shared
+        return get("replayCacheType", "shared");
+    }
+
+    public int getReplayMaxEntries() { // 本地重放记录精确保存的签名数，超出后退化为布隆过滤器
+        return getInt("replayMaxEntries", 100000);
+    }
+
     public long getTimeWindowSeconds() {
         return getLong("timeWindowSeconds", 5);
     }
@@ -43,6 +175,16 @@ public class QRLoginConfig extends IdentityProviderModel {
     public SignatureConfig.SignatureAlgorithm getAlgorithm(){
         return getAlgorithm("algorithm", SignatureConfig.SignatureAlgorithm.HMAC_SHA256);
     }
+    /**
+     * 签名配置：配置了 hmacKeys 时使用密钥环，否则沿用单一 hmacSecret
+     */
+    public SignatureConfig getSignatureConfig() throws SignatureException {
+        SignatureConfig config = new SignatureConfig(getHmacSecret(), getAlgorithm(), getTimeWindowSeconds());
+        config.setKeys(SigningKey.parseAll(getHmacKeys()));
+        config.setActiveKid(getHmacActiveKid());
+        return config;
+    }
+
     public String getSecret() {
         return get("clientSecret", null);
     }
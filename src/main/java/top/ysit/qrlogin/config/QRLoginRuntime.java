@@ -0,0 +1,131 @@
+package top.ysit.qrlogin.config;
+
+import jakarta.ws.rs.core.UriBuilder;
+import org.keycloak.models.IdentityProviderModel;
+import org.keycloak.models.KeycloakSession;
+import top.ysit.qrlogin.core.SessionStore;
+import top.ysit.qrlogin.core.security.SignatureUtil;
+import top.ysit.qrlogin.idp.QRLoginIdentityProviderFactory;
+import top.ysit.qrlogin.idp.resource.factory.QRLoginEndpointProviderFactory;
+
+import java.net.URI;
+import java.security.SignatureException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 每个 realm 的运行时快照：冻结的配置副本、签名器、会话存储，以及按请求根地址拼好的 URL 前缀。
+ * <p>
+ * 快照构建后不再读取身份提供者模型，由 {@link top.ysit.qrlogin.core.util.QRLoginStoreUtil} 按 realm 缓存，
+ * 身份提供者更新或删除时由 {@link top.ysit.qrlogin.spi.KeycloakLifecycleListener} 失效。
+ */
+public final class QRLoginRuntime {
+    // 同一 realm 通过不同主机名访问时各有一组 URL，超出时清空重建
+    private static final int MAX_URL_SETS = 16;
+
+    private final String realmName;
+    private final String modelId;
+    private final int configHash;
+    private final QRLoginConfig config;
+    private final SignatureUtil signer;
+    private final SessionStore store;
+    private final long generation;
+    private final long builtAt;
+    private final ConcurrentMap<String, Urls> urls = new ConcurrentHashMap<>();
+
+    private QRLoginRuntime(String realmName, String modelId, int configHash, QRLoginConfig config, SignatureUtil signer,
+                           SessionStore store, long generation, long builtAt) {
+        this.realmName = realmName;
+        this.modelId = modelId;
+        this.configHash = configHash;
+        this.config = config;
+        this.signer = signer;
+        this.store = store;
+        this.generation = generation;
+        this.builtAt = builtAt;
+    }
+
+    /**
+     * 复制模型配置并解析签名密钥，之后模型被修改不影响本快照
+     *
+     * @param generation 构建时的失效代数，与当前代数不一致的快照视为过期
+     */
+    public static QRLoginRuntime build(String realmName, IdentityProviderModel model, SessionStore store, long generation)
+            throws SignatureException {
+        IdentityProviderModel copy = new IdentityProviderModel(model);
+        QRLoginConfig config = new QRLoginConfig(copy);
+        return new QRLoginRuntime(realmName, copy.getInternalId(), configHash(copy), config,
+                new SignatureUtil(config.getSignatureConfig()), store, generation, System.currentTimeMillis());
+    }
+
+    /**
+     * 快照是否由同一个身份提供者的同一份配置构建
+     */
+    public boolean matches(IdentityProviderModel model) {
+        return model != null && Objects.equals(modelId, model.getInternalId()) && configHash == configHash(model);
+    }
+
+    private static int configHash(IdentityProviderModel model) {
+        return model.getConfig() == null ? 0 : model.getConfig().hashCode();
+    }
+
+    public QRLoginConfig config() {
+        return config;
+    }
+
+    public SignatureUtil signer() {
+        return signer;
+    }
+
+    public SessionStore store() {
+        return store;
+    }
+
+    public long generation() {
+        return generation;
+    }
+
+    public long builtAt() {
+        return builtAt;
+    }
+
+    /**
+     * 当前请求根地址对应的 URL 前缀
+     */
+    public Urls urls(KeycloakSession session) {
+        URI base = session.getContext().getUri().getBaseUri();
+        Urls cached = urls.get(base.toString());
+        if (cached != null) {
+            return cached;
+        }
+        if (urls.size() >= MAX_URL_SETS) {
+            urls.clear();
+        }
+        return urls.computeIfAbsent(base.toString(), k -> Urls.of(base, realmName));
+    }
+
+    @Override
+    public String toString() {
+        return "QRLoginRuntime{" + "realm=" + realmName + ", generation=" + generation + ", store=" + store + '}';
+    }
+
+    /**
+     * @param endpoint qr-login-endpoint 根地址，以 / 结尾
+     * @param callback 身份提供者回调地址，不含查询参数
+     */
+    public record Urls(String endpoint, String status, String statusWait, String events, String image, String callback) {
+        static Urls of(URI base, String realmName) {
+            String endpoint = base + "realms/" + realmName + "/" + QRLoginEndpointProviderFactory.ID + "/";
+            String callback = UriBuilder.fromUri(base)
+                    .path("realms")
+                    .path(realmName)
+                    .path("broker")
+                    .path(QRLoginIdentityProviderFactory.PROVIDER_ID)
+                    .path("endpoint")
+                    .build().toString();
+            return new Urls(endpoint, endpoint + "qr/status", endpoint + "qr/status/wait", endpoint + "qr/events",
+                    endpoint + "qr/image", callback);
+        }
+    }
+}
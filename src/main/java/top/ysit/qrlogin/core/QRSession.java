@@ -1,91 +1,35 @@
 package top.ysit.qrlogin.core;
 
-import org.keycloak.sessions.AuthenticationSessionModel;
+/**
+ * 二维码会话，不可变值对象；状态迁移通过 with* 方法生成新实例。
+ * 只保存重新定位认证会话所需的ID（根会话ID、客户端ID、tabId），时间均为 epoch 毫秒。
+ *
+ * @param kcSessionId 根认证会话ID
+ * @param clientId    认证会话所属客户端的内部ID
+ * @param email       确认登录的用户邮箱，确认前为 null
+ * @param responseUrl 确认后浏览器跳转的回调地址，确认前为 null
+ * @param version     状态版本，新建为 1，每次修改递增，用作 qr/status 的 ETag
+ */
+public record QRSession(String sessionId, QRSessionStatus status, String kcSessionId, String clientId, String tabId,
+                        String email, String responseUrl, long createdAt, long expireAt, long version) {
 
-import java.time.Instant;
-
-public class QRSession {
-    private String sessionId;
-    private QRSessionStatus status;
-    private String userId;
-    private String kcSessionId;
-    private Instant expireAt;      // epoch millis
-    private Instant createdAt;
-    private String email;
-    private AuthenticationSessionModel authSession;
-    private String responseUrl;
-
-    public String getSessionId() {
-        return sessionId;
-    }
-
-    public void setSessionId(String sessionId) {
-        this.sessionId = sessionId;
-    }
-
-    public String getKcSessionId() {
-        return kcSessionId;
-    }
-
-    public void setKcSessionId(String kcSessionId) {
-        this.kcSessionId = kcSessionId;
-    }
-
-    public QRSessionStatus getStatus() {
-        return status;
-    }
-
-    public void setStatus(QRSessionStatus status) {
-        this.status = status;
-    }
-
-    public String getUserId() {
-        return userId;
-    }
-
-    public void setUserId(String userId) {
-        this.userId = userId;
-    }
-
-    public Instant getExpireAt() {
-        return expireAt;
-    }
-
-    public void setExpireAt(Instant expireAt) {
-        this.expireAt = expireAt;
-    }
-
-    public Instant getCreatedAt() {
-        return createdAt;
+    public static QRSession pending(String sessionId, String kcSessionId, String clientId, String tabId, long createdAt, long expireAt) {
+        return new QRSession(sessionId, QRSessionStatus.PENDING, kcSessionId, clientId, tabId, null, null, createdAt, expireAt, 1);
     }
 
-    public void setCreatedAt(Instant createdAt) {
-        this.createdAt = createdAt;
+    public QRSession withStatus(QRSessionStatus status) {
+        return new QRSession(sessionId, status, kcSessionId, clientId, tabId, email, responseUrl, createdAt, expireAt, version + 1);
     }
 
-    public String getEmail() {
-        return email;
+    public QRSession withEmail(String email) {
+        return new QRSession(sessionId, status, kcSessionId, clientId, tabId, email, responseUrl, createdAt, expireAt, version + 1);
     }
 
-    public void setEmail(String email) {
-        this.email = email;
+    public QRSession withResponseUrl(String responseUrl) {
+        return new QRSession(sessionId, status, kcSessionId, clientId, tabId, email, responseUrl, createdAt, expireAt, version + 1);
     }
 
-    public AuthenticationSessionModel getAuthSession() {
-        return authSession;
+    public boolean isExpired(long nowMillis) {
+        return nowMillis >= expireAt;
     }
-
-    public void setAuthSession(AuthenticationSessionModel authSession) {
-        this.authSession = authSession;
-    }
-
-    public String getResponseUrl() {
-        return responseUrl;
-    }
-
-    public void setResponseUrl(String responseUrl) {
-        this.responseUrl = responseUrl;
-    }
-
-
-}
\ No newline at end of file
+}
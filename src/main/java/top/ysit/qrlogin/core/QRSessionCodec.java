@@ -0,0 +1,114 @@
+package top.ysit.qrlogin.core;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * QRSession 的紧凑二进制编码，供远程存储使用；会话ID作为键保存，不写入值中。
+ * <pre>
+ * [状态码 1B][格式版本 1B][createdAt 8B][expireAt 8B][状态版本 8B]
+ * 之后依次为 kcSessionId、clientId、tabId、email、responseUrl：
+ * 每个字段为 varint 长度 + UTF-8 字节，长度 0 表示 null
+ * </pre>
+ * 首字节即状态码，集群监听可以不解码整体直接读取状态。
+ */
+public final class QRSessionCodec {
+    private static final byte VERSION = 2;
+    private static final int HEADER = 26;
+
+    private QRSessionCodec() {
+    }
+
+    public static byte[] encode(QRSession s) {
+        byte[][] fields = {
+                utf8(s.kcSessionId()), utf8(s.clientId()), utf8(s.tabId()), utf8(s.email()), utf8(s.responseUrl())
+        };
+        int size = HEADER;
+        for (byte[] f : fields) {
+            size += varintSize(f.length) + f.length;
+        }
+        byte[] out = new byte[size];
+        out[0] = (byte) s.status().code();
+        out[1] = VERSION;
+        putLong(out, 2, s.createdAt());
+        putLong(out, 10, s.expireAt());
+        putLong(out, 18, s.version());
+        int pos = HEADER;
+        for (byte[] f : fields) {
+            pos = putVarint(out, pos, f.length);
+            System.arraycopy(f, 0, out, pos, f.length);
+            pos += f.length;
+        }
+        return out;
+    }
+
+    public static QRSession decode(String sessionId, byte[] in) {
+        if (in == null || in.length < HEADER || in[1] != VERSION) {
+            throw new IllegalArgumentException("Unsupported QR session encoding");
+        }
+        QRSessionStatus status = QRSessionStatus.fromCode((char) in[0]);
+        long createdAt = getLong(in, 2);
+        long expireAt = getLong(in, 10);
+        long version = getLong(in, 18);
+        String[] fields = new String[5];
+        int pos = HEADER;
+        for (int i = 0; i < fields.length; i++) {
+            int len = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = in[pos++];
+                len |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            fields[i] = len == 0 ? null : new String(in, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+        }
+        return new QRSession(sessionId, status, fields[0], fields[1], fields[2], fields[3], fields[4], createdAt, expireAt, version);
+    }
+
+    /**
+     * 以 ISO-8859-1 把字节一一映射为字符：紧凑字符串每字符仍只占 1 字节，
+     * 同时获得按内容比较的 equals，便于在缓存中做条件替换
+     */
+    public static String encodeToString(QRSession s) {
+        return new String(encode(s), StandardCharsets.ISO_8859_1);
+    }
+
+    public static QRSession decodeFromString(String sessionId, String value) {
+        return decode(sessionId, value.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int varintSize(int v) {
+        int n = 1;
+        while ((v >>>= 7) != 0) n++;
+        return n;
+    }
+
+    private static int putVarint(byte[] out, int pos, int v) {
+        while ((v & ~0x7f) != 0) {
+            out[pos++] = (byte) ((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out[pos++] = (byte) v;
+        return pos;
+    }
+
+    private static void putLong(byte[] out, int pos, long v) {
+        for (int i = 7; i >= 0; i--) {
+            out[pos + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    private static long getLong(byte[] in, int pos) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (in[pos + i] & 0xff);
+        }
+        return v;
+    }
+}
@@ -1,3 +1,21 @@
 package top.ysit.qrlogin.core;
 
-public enum QRSessionStatus {PENDING, SCANNED, CONFIRMED, EXPIRED}
\ No newline at end of file
+public enum QRSessionStatus {
+    PENDING, SCANNED, CONFIRMED, EXPIRED;
+
+    /**
+     * 单字符编码，用于远程存储字段和集群通知消息
+     */
+    public char code() {
+        return name().charAt(0);
+    }
+
+    public static QRSessionStatus fromCode(char code) {
+        return switch (code) {
+            case 'P' -> PENDING;
+            case 'S' -> SCANNED;
+            case 'C' -> CONFIRMED;
+            default -> EXPIRED;
+        };
+    }
+}
@@ -0,0 +1,9 @@
+package top.ysit.qrlogin.core;
+
+/**
+ * 会话状态变更监听器，SessionStore 在状态迁移成功后回调
+ */
+@FunctionalInterface
+public interface SessionStatusListener {
+    void onStatusChanged(String sessionId, QRSessionStatus status);
+}
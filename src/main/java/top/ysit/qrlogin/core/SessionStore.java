@@ -1,10 +1,30 @@
 package top.ysit.qrlogin.core;
 
 public interface SessionStore {
+    /**
+     * 保存新会话；有界存储已满时抛出 {@link top.ysit.qrlogin.core.store.exception.StoreSaturatedException}
+     */
     void put(QRSession s);
 
     QRSession get(String sessionId);
 
+    /**
+     * 条件请求用的摘要读取：会话存在、属于 kcSessionId 且在 nowMillis 时未过期时返回版本、状态和创建时间，否则返回 null。
+     * 默认读取整条会话，远程存储可只读取这几个字段
+     */
+    default Stamp stamp(String sessionId, String kcSessionId, long nowMillis) {
+        QRSession s = get(sessionId);
+        if (s == null || !kcSessionId.equals(s.kcSessionId()) || s.isExpired(nowMillis)) return null;
+        return new Stamp(s.version(), s.status(), s.createdAt());
+    }
+
+    /**
+     * 存储是否已满、正在拒绝新会话，用于放慢前端轮询
+     */
+    default boolean isSaturated() {
+        return false;
+    }
+
     void setScanned(String sessionId);
 
     void setConfirmed(String sessionId, String userId);
@@ -13,6 +33,20 @@ public interface SessionStore {
 
     void expire(String sessionId);
 
+    /**
+     * 确认登录：写入回调地址并迁移到 CONFIRMED，远程存储可合并为一次往返
+     */
+    default void confirm(String sessionId, String userId, String url) {
+        setResponseUrl(sessionId, url);
+        setConfirmed(sessionId, userId);
+    }
+
     void delete(String sessionId);
 
+    void addListener(SessionStatusListener listener);
+
+    void removeListener(SessionStatusListener listener);
+
+    record Stamp(long version, QRSessionStatus status, long createdAt) {
+    }
 }
@@ -0,0 +1,196 @@
+package top.ysit.qrlogin.core.device;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * 设备公钥登记表。
+ * <p>
+ * 每个 App 安装生成自己的密钥对，公钥保存在用户属性 {@code qrlogin.device.<deviceId>} 中，值为 {@code <alg>:<base64 SPKI>}。
+ * 解析后的 {@link PublicKey} 按 用户+设备 缓存，每次仍读取属性值比对，重新登记或被管理员删除后立即生效。
+ */
+public class DeviceKeyRegistry {
+    public static final String ATTRIBUTE_PREFIX = "qrlogin.device.";
+    private static final Pattern DEVICE_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final ConcurrentMap<String, Entry> keys = new ConcurrentHashMap<>();
+    private final int maxEntries;
+
+    public DeviceKeyRegistry(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * 登记或替换设备公钥
+     *
+     * @param algorithm Ed25519 或 ES256
+     * @param publicKey base64 编码的 X.509 SubjectPublicKeyInfo
+     */
+    public void register(UserModel user, String deviceId, String algorithm, String publicKey) throws SignatureException {
+        if (deviceId == null || !DEVICE_ID.matcher(deviceId).matches()) {
+            throw new SignatureException("Invalid device id");
+        }
+        String stored = algorithm + ":" + publicKey;
+        Entry entry = new Entry(stored, parse(stored));
+        user.setSingleAttribute(ATTRIBUTE_PREFIX + deviceId, stored);
+        put(user.getId() + '/' + deviceId, entry);
+    }
+
+    /**
+     * 用户是否已为该设备登记过公钥
+     */
+    public boolean isRegistered(UserModel user, String deviceId) {
+        return user.getFirstAttribute(ATTRIBUTE_PREFIX + deviceId) != null;
+    }
+
+    /**
+     * 校验设备签名并返回设备所属用户
+     *
+     * @param fields 参与签名的字段，须包含 user_id、device_id
+     * @param sign   base64url 编码的签名（ES256 为 DER 格式）
+     * @throws SignatureException 设备未登记、用户被禁用或签名不匹配
+     */
+    public UserModel verify(KeycloakSession session, RealmModel realm, String action, Map<String, String> fields, String sign)
+            throws SignatureException {
+        String userId = fields.get("user_id");
+        String deviceId = fields.get("device_id");
+        if (userId == null || deviceId == null || sign == null) {
+            throw new SignatureException("Missing device signature fields");
+        }
+        UserModel user = session.users().getUserById(realm, userId);
+        if (user == null || !user.isEnabled()) {
+            throw new SignatureException("Unknown device");
+        }
+        Entry entry = lookup(user, deviceId);
+        if (entry == null) {
+            throw new SignatureException("Unknown device");
+        }
+        try {
+            Signature verifier = Signature.getInstance(entry.key.signatureAlgorithm);
+            verifier.initVerify(entry.key.publicKey);
+            verifier.update(canonical(action, fields));
+            if (!verifier.verify(Base64.getUrlDecoder().decode(sign))) {
+                throw new SignatureException("Invalid device signature");
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new SignatureException("Invalid device signature", e);
+        }
+        return user;
+    }
+
+    /**
+     * 组装设备签名覆盖的字段
+     */
+    public static Map<String, String> fields(String userId, String deviceId, String qrSession, String kcSession, String timestamp) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("user_id", userId);
+        fields.put("device_id", deviceId);
+        fields.put("qr_session", qrSession);
+        fields.put("kc_session", kcSession);
+        fields.put("timestamp", timestamp);
+        return fields;
+    }
+
+    /**
+     * 替换已登记公钥时，旧设备私钥签名覆盖的字段
+     */
+    public static Map<String, String> registerFields(String userId, String deviceId, String algorithm, String publicKey,
+                                                     String timestamp) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("user_id", userId);
+        fields.put("device_id", deviceId);
+        fields.put("alg", algorithm);
+        fields.put("public_key", publicKey);
+        fields.put("timestamp", timestamp);
+        return fields;
+    }
+
+    /**
+     * 设备签名的原文：action 与各字段按键名排序后以 key=value&amp; 连接，不含 device_sign
+     */
+    public static byte[] canonical(String action, Map<String, String> fields) {
+        List<String> names = new ArrayList<>(fields.keySet());
+        names.remove("device_sign");
+        Collections.sort(names);
+        StringBuilder sb = new StringBuilder("action=").append(action);
+        for (String name : names) {
+            sb.append('&').append(name).append('=').append(fields.get(name));
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Entry lookup(UserModel user, String deviceId) throws SignatureException {
+        String stored = user.getFirstAttribute(ATTRIBUTE_PREFIX + deviceId);
+        if (stored == null) return null;
+        String cacheKey = user.getId() + '/' + deviceId;
+        Entry entry = keys.get(cacheKey);
+        if (entry != null && entry.stored.equals(stored)) {
+            return entry;
+        }
+        entry = new Entry(stored, parse(stored));
+        put(cacheKey, entry);
+        return entry;
+    }
+
+    private void put(String cacheKey, Entry entry) {
+        if (keys.size() >= maxEntries && !keys.containsKey(cacheKey)) {
+            // 超限时任意淘汰一部分，被淘汰的设备下次校验时重新解析
+            Iterator<String> it = keys.keySet().iterator();
+            while (keys.size() >= maxEntries && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        keys.put(cacheKey, entry);
+    }
+
+    private static DeviceKey parse(String stored) throws SignatureException {
+        int colon = stored.indexOf(':');
+        if (colon <= 0) {
+            throw new SignatureException("Invalid device key");
+        }
+        String algorithm = stored.substring(0, colon);
+        String[] jca = switch (algorithm) {
+            case "Ed25519" -> new String[]{"Ed25519", "Ed25519"};
+            case "ES256" -> new String[]{"EC", "SHA256withECDSA"};
+            default -> throw new SignatureException("Unsupported device key algorithm " + algorithm);
+        };
+        try {
+            byte[] spki = Base64.getDecoder().decode(stored.substring(colon + 1));
+            PublicKey key = KeyFactory.getInstance(jca[0]).generatePublic(new X509EncodedKeySpec(spki));
+            return new DeviceKey(key, jca[1]);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new SignatureException("Invalid device key", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceKeyRegistry{" + "cached=" + keys.size() + ", capacity=" + maxEntries + '}';
+    }
+
+    private record DeviceKey(PublicKey publicKey, String signatureAlgorithm) {
+    }
+
+    private record Entry(String stored, DeviceKey key) {
+    }
+}
@@ -0,0 +1,111 @@
+package top.ysit.qrlogin.core.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import top.ysit.qrlogin.core.resilience.Bulkhead;
+import top.ysit.qrlogin.core.resilience.CircuitBreaker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * 插件指标，注册到 Micrometer 全局注册表，开启 Keycloak metrics 后随 /metrics 一起导出
+ */
+public final class QRLoginMetrics {
+    private static final String PREFIX = "qrlogin.";
+
+    private QRLoginMetrics() {
+    }
+
+    private static MeterRegistry registry() {
+        return Metrics.globalRegistry;
+    }
+
+    /**
+     * 注册会话存储的容量指标；Gauge 只弱引用 owner，存储被回收后指标自动失效
+     */
+    public static <T> void bindSessionStore(T owner, IntSupplier size, int capacity, BooleanSupplier saturated) {
+        Gauge.builder(PREFIX + "sessions.active", owner, o -> size.getAsInt())
+                .description("当前保留的二维码会话数")
+                .register(registry());
+        Gauge.builder(PREFIX + "sessions.capacity", owner, o -> capacity)
+                .description("二维码会话容量上限")
+                .register(registry());
+        Gauge.builder(PREFIX + "sessions.saturated", owner, o -> saturated.getAsBoolean() ? 1 : 0)
+                .description("存储已满并开始拒绝新会话时为 1")
+                .register(registry());
+    }
+
+    /**
+     * @param reason capacity：容量淘汰；browser：同一浏览器的旧二维码被替换
+     */
+    public static void sessionEvicted(String reason) {
+        Counter.builder(PREFIX + "sessions.evicted")
+                .tag("reason", reason)
+                .register(registry())
+                .increment();
+    }
+
+    public static void sessionRejected() {
+        Counter.builder(PREFIX + "sessions.rejected")
+                .register(registry())
+                .increment();
+    }
+
+    /**
+     * @param result hit：命中缓存；miss：实际执行校验；coalesced：等待同一令牌正在进行的校验；
+     *               wait_timeout：等待超时，按被拒绝处理
+     */
+    public static void tokenCache(String result) {
+        Counter.builder(PREFIX + "token.cache")
+                .tag("result", result)
+                .register(registry())
+                .increment();
+    }
+
+    /**
+     * 注册舱壁并发数和熔断器状态；state 为 0 关闭、1 半开、2 打开。
+     * 同名重复绑定时先移除旧指标，否则注册表会返回已有的 Gauge，仍指向被替换的实例
+     */
+    public static void bindResilience(String name, Bulkhead bulkhead, CircuitBreaker breaker) {
+        registry().find(PREFIX + "resilience.inflight").tag("name", name).meters().forEach(registry()::remove);
+        registry().find(PREFIX + "resilience.state").tag("name", name).meters().forEach(registry()::remove);
+        Gauge.builder(PREFIX + "resilience.inflight", bulkhead, Bulkhead::inFlight)
+                .tag("name", name)
+                .register(registry());
+        Gauge.builder(PREFIX + "resilience.state", breaker, b -> b.getState().ordinal())
+                .tag("name", name)
+                .register(registry());
+    }
+
+    /**
+     * @param reason bulkhead：并发已满；circuit_open：熔断器打开或半开探测中
+     */
+    public static void callRejected(String name, String reason) {
+        Counter.builder(PREFIX + "resilience.rejected")
+                .tag("name", name)
+                .tag("reason", reason)
+                .register(registry())
+                .increment();
+    }
+
+    public static void tokenCacheEvicted() {
+        Counter.builder(PREFIX + "token.cache.evicted")
+                .register(registry())
+                .increment();
+    }
+
+    /**
+     * @param result rendered：后台渲染完成；dropped：队列已满，留给 qr/image 按需渲染
+     */
+    public static void prerender(String result, long nanos) {
+        Timer.builder(PREFIX + "prerender")
+                .tag("result", result)
+                .register(registry())
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,75 @@
+package top.ysit.qrlogin.core.notify;
+
+import org.infinispan.Cache;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryExpired;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.event.CacheEntryExpiredEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+import top.ysit.qrlogin.core.QRSessionStatus;
+import top.ysit.qrlogin.core.SessionStatusListener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Infinispan 集群监听器通知：会话缓存在任意节点上的修改和过期都会异步回传到本节点，
+ * 因此 publish 无需额外广播，状态直接取自新值的首字母。
+ * <p>
+ * 集群监听器收到的修改事件不带旧值，本节点按会话记录上次发布的状态，状态未变的修改（写入邮箱、回调地址）不发布；
+ * 记录在会话过期或删除时移除。
+ */
+@Listener(clustered = true, sync = false)
+public class InfinispanStatusNotifier implements StatusNotifier {
+    private final LocalStatusNotifier local = new LocalStatusNotifier();
+    private final ConcurrentMap<String, QRSessionStatus> lastPublished = new ConcurrentHashMap<>();
+    private final Cache<String, String> cache;
+
+    public InfinispanStatusNotifier(Cache<String, String> cache) {
+        this.cache = cache;
+        cache.addListener(this);
+    }
+
+    @Override
+    public void publish(String sessionId, QRSessionStatus status) {
+        // 由缓存事件驱动，见 onModified / onExpired
+    }
+
+    @Override
+    public void subscribe(SessionStatusListener listener) {
+        local.subscribe(listener);
+    }
+
+    @Override
+    public void unsubscribe(SessionStatusListener listener) {
+        local.unsubscribe(listener);
+    }
+
+    @CacheEntryModified
+    public void onModified(CacheEntryModifiedEvent<String, String> event) {
+        String value = event.getNewValue();
+        if (value == null || value.isEmpty()) return;
+        QRSessionStatus status = QRSessionStatus.fromCode(value.charAt(0));
+        if (lastPublished.put(event.getKey(), status) == status) return;
+        local.publish(event.getKey(), status);
+    }
+
+    @CacheEntryExpired
+    public void onExpired(CacheEntryExpiredEvent<String, String> event) {
+        lastPublished.remove(event.getKey());
+        local.publish(event.getKey(), QRSessionStatus.EXPIRED);
+    }
+
+    @CacheEntryRemoved
+    public void onRemoved(CacheEntryRemovedEvent<String, String> event) {
+        lastPublished.remove(event.getKey());
+    }
+
+    @Override
+    public void close() {
+        cache.removeListener(this);
+        lastPublished.clear();
+    }
+}
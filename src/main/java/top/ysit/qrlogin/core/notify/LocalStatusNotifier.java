@@ -0,0 +1,35 @@
+package top.ysit.qrlogin.core.notify;
+
+import top.ysit.qrlogin.core.QRSessionStatus;
+import top.ysit.qrlogin.core.SessionStatusListener;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 进程内通知：在发布线程上同步回调本节点订阅者，也是集群实现投递本地事件的基础
+ */
+public class LocalStatusNotifier implements StatusNotifier {
+    private final List<SessionStatusListener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(String sessionId, QRSessionStatus status) {
+        for (SessionStatusListener l : listeners) {
+            try {
+                l.onStatusChanged(sessionId, status);
+            } catch (RuntimeException ignored) {
+                // 单个监听器异常不影响其它订阅者
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(SessionStatusListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void unsubscribe(SessionStatusListener listener) {
+        listeners.remove(listener);
+    }
+}
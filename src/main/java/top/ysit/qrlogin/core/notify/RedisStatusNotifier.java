@@ -0,0 +1,71 @@
+package top.ysit.qrlogin.core.notify;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.core.QRSessionStatus;
+import top.ysit.qrlogin.core.SessionStatusListener;
+
+import java.util.UUID;
+
+/**
+ * Redis pub/sub 通知：本地事件直接投递，同时发布到 {namespace}events 频道；
+ * 收到其它节点的消息后投递给本节点订阅者，消息格式为 nodeId|qrSessionId|状态首字母。
+ */
+public class RedisStatusNotifier implements StatusNotifier {
+    private final LocalStatusNotifier local = new LocalStatusNotifier();
+    private final String nodeId = UUID.randomUUID().toString();
+    private final RedisClient client;
+    private final StatefulRedisConnection<String, String> publisher;
+    private final StatefulRedisPubSubConnection<String, String> subscriber;
+    private final String channel;
+
+    public RedisStatusNotifier(QRLoginConfig cfg) {
+        this.client = RedisClient.create(cfg.getRedisUri());
+        this.channel = cfg.getRedisNamespace() + "events";
+        this.publisher = client.connect();
+        this.subscriber = client.connectPubSub();
+        this.subscriber.addListener(new RedisPubSubAdapter<>() {
+            @Override
+            public void message(String ch, String message) {
+                onMessage(message);
+            }
+        });
+        // 连接断开重连后 lettuce 会自动恢复订阅
+        this.subscriber.sync().subscribe(channel);
+    }
+
+    @Override
+    public void publish(String sessionId, QRSessionStatus status) {
+        local.publish(sessionId, status);
+        publisher.async().publish(channel, nodeId + '|' + sessionId + '|' + status.code());
+    }
+
+    @Override
+    public void subscribe(SessionStatusListener listener) {
+        local.subscribe(listener);
+    }
+
+    @Override
+    public void unsubscribe(SessionStatusListener listener) {
+        local.unsubscribe(listener);
+    }
+
+    private void onMessage(String message) {
+        int first = message.indexOf('|');
+        int last = message.lastIndexOf('|');
+        if (first < 0 || last <= first || last == message.length() - 1) return;
+        // 本节点发布的事件已在 publish 时投递
+        if (message.regionMatches(0, nodeId, 0, first) && first == nodeId.length()) return;
+        local.publish(message.substring(first + 1, last), QRSessionStatus.fromCode(message.charAt(last + 1)));
+    }
+
+    @Override
+    public void close() {
+        subscriber.close();
+        publisher.close();
+        client.shutdown();
+    }
+}
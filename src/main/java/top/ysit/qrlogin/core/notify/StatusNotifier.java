@@ -0,0 +1,21 @@
+package top.ysit.qrlogin.core.notify;
+
+import top.ysit.qrlogin.core.QRSessionStatus;
+import top.ysit.qrlogin.core.SessionStatusListener;
+
+/**
+ * 会话状态变更通知通道：SessionStore 在迁移成功后发布 (qrSessionId, newStatus)，
+ * 实现负责把事件投递给本节点的全部订阅者，集群实现还会投递其它节点发布的事件。
+ */
+public interface StatusNotifier extends AutoCloseable {
+
+    void publish(String sessionId, QRSessionStatus status);
+
+    void subscribe(SessionStatusListener listener);
+
+    void unsubscribe(SessionStatusListener listener);
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,161 @@
+package top.ysit.qrlogin.core.notify;
+
+import top.ysit.qrlogin.core.QRSessionStatus;
+import top.ysit.qrlogin.core.SessionStatusListener;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 状态等待队列：按 qrSessionId 挂起长轮询等待者和 SSE 订阅者，由 SessionStore 状态变更驱动
+ */
+public class StatusWaiters implements SessionStatusListener {
+    private final ConcurrentMap<String, Set<Entry>> waiters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+
+    public StatusWaiters() {
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "qr-status-waiter");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 挂起一个一次性等待者
+     *
+     * @param sessionId 二维码会话ID
+     * @param timeoutMs 最长等待时间(毫秒)，到期后同样触发 onWake
+     * @param onWake    状态变化或超时后执行，保证只执行一次
+     * @return 等待句柄，可用于提前唤醒或取消
+     */
+    public Waiter await(String sessionId, long timeoutMs, Runnable onWake) {
+        Waiter w = new Waiter(sessionId, onWake);
+        register(w, timeoutMs);
+        return w;
+    }
+
+    /**
+     * 订阅一个会话的全部状态变化，直到取消或超时
+     *
+     * @param sessionId 二维码会话ID
+     * @param timeoutMs 订阅时长(毫秒)，到期后执行 onTimeout 并自动取消
+     * @param onChange  每次状态变化时执行
+     * @param onTimeout 订阅到期时执行
+     * @return 订阅句柄
+     */
+    public Watch watch(String sessionId, long timeoutMs, Consumer<QRSessionStatus> onChange, Runnable onTimeout) {
+        Watch w = new Watch(sessionId, onChange, onTimeout);
+        register(w, timeoutMs);
+        return w;
+    }
+
+    @Override
+    public void onStatusChanged(String sessionId, QRSessionStatus status) {
+        Set<Entry> set = waiters.get(sessionId);
+        if (set == null) return;
+        for (Entry e : set) {
+            e.onStatus(status);
+        }
+    }
+
+    public int size() {
+        return waiters.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void register(Entry e, long timeoutMs) {
+        // 在 compute 内加入，避免 detach 刚移除空集合后再往这个已脱离映射的集合里添加
+        waiters.compute(e.sessionId, (k, set) -> {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            set.add(e);
+            return set;
+        });
+        e.timeout = timer.schedule(e::onTimeout, Math.max(0, timeoutMs), TimeUnit.MILLISECONDS);
+    }
+
+    private void detach(Entry e) {
+        waiters.computeIfPresent(e.sessionId, (k, set) -> {
+            set.remove(e);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private abstract class Entry {
+        private final String sessionId;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile ScheduledFuture<?> timeout;
+
+        private Entry(String sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        abstract void onStatus(QRSessionStatus status);
+
+        abstract void onTimeout();
+
+        public void cancel() {
+            finish();
+        }
+
+        boolean isDone() {
+            return done.get();
+        }
+
+        boolean finish() {
+            if (!done.compareAndSet(false, true)) return false;
+            ScheduledFuture<?> f = timeout;
+            if (f != null) f.cancel(false);
+            detach(this);
+            return true;
+        }
+    }
+
+    public class Waiter extends Entry {
+        private final Runnable onWake;
+
+        private Waiter(String sessionId, Runnable onWake) {
+            super(sessionId);
+            this.onWake = onWake;
+        }
+
+        public void wake() {
+            if (!finish()) return;
+            onWake.run();
+        }
+
+        @Override
+        void onStatus(QRSessionStatus status) {
+            wake();
+        }
+
+        @Override
+        void onTimeout() {
+            wake();
+        }
+    }
+
+    public class Watch extends Entry {
+        private final Consumer<QRSessionStatus> onChange;
+        private final Runnable onTimeout;
+
+        private Watch(String sessionId, Consumer<QRSessionStatus> onChange, Runnable onTimeout) {
+            super(sessionId);
+            this.onChange = onChange;
+            this.onTimeout = onTimeout;
+        }
+
+        @Override
+        void onStatus(QRSessionStatus status) {
+            if (isDone()) return;
+            onChange.accept(status);
+        }
+
+        @Override
+        void onTimeout() {
+            if (!finish()) return;
+            onTimeout.run();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package top.ysit.qrlogin.core.replay;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import top.ysit.qrlogin.config.QRLoginConfig;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Infinispan 重放记录：在 Keycloak 的 cache container 中定义分布式缓存，putIfAbsent 在集群内原子占位
+ */
+public class InfinispanReplayCache implements ReplayCache {
+    public static final String CACHE_NAME = "qrlogin-replay";
+
+    private final Cache<String, Boolean> cache;
+    private final long windowSeconds;
+
+    public InfinispanReplayCache(KeycloakSession session, QRLoginConfig cfg) {
+        this(session.getProvider(InfinispanConnectionProvider.class)
+                .getCache(InfinispanConnectionProvider.WORK_CACHE_NAME).getCacheManager(), cfg);
+    }
+
+    /**
+     * 在给定的 cache container 中定义并使用重放缓存；集群模式下为 DIST_SYNC 并按配置设置副本数，单机为 LOCAL
+     */
+    InfinispanReplayCache(EmbeddedCacheManager cacheManager, QRLoginConfig cfg) {
+        this.windowSeconds = cfg.getTimeWindowSeconds();
+        if (cacheManager.getCacheConfiguration(CACHE_NAME) == null) {
+            ConfigurationBuilder builder = new ConfigurationBuilder();
+            if (cacheManager.getCacheManagerConfiguration().isClustered()) {
+                builder.clustering().cacheMode(CacheMode.DIST_SYNC).hash().numOwners(cfg.getInfinispanOwners());
+            } else {
+                builder.clustering().cacheMode(CacheMode.LOCAL);
+            }
+            cacheManager.defineConfiguration(CACHE_NAME, builder.build());
+        }
+        this.cache = cacheManager.getCache(CACHE_NAME);
+    }
+
+    @Override
+    public boolean firstSeen(String action, String signature, long timestampSec) {
+        long ttlMs = Math.max(1000, (timestampSec + windowSeconds + 1) * 1000 - System.currentTimeMillis());
+        return cache.putIfAbsent(action + ':' + signature, Boolean.TRUE, ttlMs, TimeUnit.MILLISECONDS) == null;
+    }
+
+    @Override
+    public String toString() {
+        return "InfinispanReplayCache{" + "cache=" + CACHE_NAME + '}';
+    }
+}
@@ -0,0 +1,109 @@
+package top.ysit.qrlogin.core.replay;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 本节点重放记录。
+ * <p>
+ * 按请求时间戳分桶，桶宽等于时间窗口，合法请求最多落在相邻的三个桶中，环形保留四个桶，
+ * 复用槽位时整桶丢弃。每个桶先用精确集合记录，超过容量后转入固定大小的布隆过滤器，
+ * 内存有上限，代价是过载时极少量合法请求可能被误判为重放。按键哈希分段加锁，并发写互不阻塞。
+ */
+public class LocalReplayCache implements ReplayCache {
+    private static final int STRIPES = 16;
+    private static final int RING = 4;
+    private static final int LIVE_BUCKETS = 3;
+    private static final int BLOOM_BITS_PER_ENTRY = 64;
+    private static final int BLOOM_HASHES = 4;
+
+    private final long windowSeconds;
+    private final int exactPerBucket;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public LocalReplayCache(long windowSeconds, int maxEntries) {
+        this.windowSeconds = Math.max(1, windowSeconds);
+        this.exactPerBucket = Math.max(16, maxEntries / (STRIPES * LIVE_BUCKETS));
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public boolean firstSeen(String action, String signature, long timestampSec) {
+        String key = action + ':' + signature;
+        long hash = fnv1a64(key);
+        long bucketId = Math.floorDiv(timestampSec, windowSeconds);
+        Stripe stripe = stripes[(int) ((hash >>> 32) & (STRIPES - 1))];
+        synchronized (stripe) {
+            return stripe.bucket(bucketId).add(key, hash);
+        }
+    }
+
+    private final class Stripe {
+        private final Bucket[] ring = new Bucket[RING];
+
+        Bucket bucket(long id) {
+            int slot = (int) Math.floorMod(id, RING);
+            Bucket b = ring[slot];
+            if (b == null || b.id != id) {
+                b = new Bucket(id);
+                ring[slot] = b;
+            }
+            return b;
+        }
+    }
+
+    private final class Bucket {
+        private final long id;
+        private final Set<String> exact = new HashSet<>();
+        private long[] bloom;
+
+        Bucket(long id) {
+            this.id = id;
+        }
+
+        boolean add(String key, long hash) {
+            if (exact.contains(key)) return false;
+            if (exact.size() < exactPerBucket && bloom == null) {
+                return exact.add(key);
+            }
+            if (bloom == null) {
+                bloom = new long[Math.max(1, exactPerBucket * BLOOM_BITS_PER_ENTRY / 64)];
+            }
+            return bloomAdd(hash);
+        }
+
+        // 双重哈希生成 k 个位置，全部已置位视为重复
+        private boolean bloomAdd(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            long bits = (long) bloom.length * 64;
+            boolean present = true;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = Math.floorMod(h1 + (long) i * h2, bits);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << (bit & 63);
+                if ((bloom[word] & mask) == 0) {
+                    present = false;
+                    bloom[word] |= mask;
+                }
+            }
+            return !present;
+        }
+    }
+
+    private static long fnv1a64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "LocalReplayCache{" + "windowSeconds=" + windowSeconds + '}';
+    }
+}
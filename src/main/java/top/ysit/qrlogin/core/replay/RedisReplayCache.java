@@ -0,0 +1,47 @@
+package top.ysit.qrlogin.core.replay;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import top.ysit.qrlogin.config.QRLoginConfig;
+
+import java.time.Duration;
+
+/**
+ * Redis 重放记录：SET NX PX 原子占位，多个 Keycloak 节点共享，键在 timestamp + 时间窗口后自动过期
+ */
+public class RedisReplayCache implements ReplayCache, AutoCloseable {
+    private final RedisClient client;
+    // lettuce 连接线程安全，单条 SET 不需要连接池
+    private final StatefulRedisConnection<String, String> connection;
+    private final String prefix;
+    private final long windowSeconds;
+
+    public RedisReplayCache(QRLoginConfig cfg) {
+        RedisURI uri = RedisURI.create(cfg.getRedisUri());
+        uri.setTimeout(Duration.ofMillis(cfg.getRedisTimeoutMs()));
+        this.client = RedisClient.create(uri);
+        this.connection = client.connect();
+        this.prefix = cfg.getRedisNamespace() + "replay:";
+        this.windowSeconds = cfg.getTimeWindowSeconds();
+    }
+
+    @Override
+    public boolean firstSeen(String action, String signature, long timestampSec) {
+        long ttlMs = Math.max(1000, (timestampSec + windowSeconds + 1) * 1000 - System.currentTimeMillis());
+        String reply = connection.sync().set(prefix + action + ':' + signature, "1", SetArgs.Builder.nx().px(ttlMs));
+        return "OK".equals(reply);
+    }
+
+    @Override
+    public void close() {
+        connection.close();
+        client.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "RedisReplayCache{" + "prefix=" + prefix + '}';
+    }
+}
@@ -0,0 +1,18 @@
+package top.ysit.qrlogin.core.replay;
+
+/**
+ * 已使用签名的记录，用于拒绝时间窗口内重放的 scan/confirm/回调请求。
+ * <p>
+ * 签名覆盖了 timestamp，同一签名必然带有同一时间戳，因此条目只需保留到 timestamp + 时间窗口。
+ */
+@FunctionalInterface
+public interface ReplayCache {
+    /**
+     * 记录一次已通过验签的请求
+     *
+     * @param action       请求类型，同一签名用于不同接口时互不影响
+     * @param timestampSec 请求中的时间戳（秒）
+     * @return 首次出现返回 true，重放返回 false
+     */
+    boolean firstSeen(String action, String signature, long timestampSec);
+}
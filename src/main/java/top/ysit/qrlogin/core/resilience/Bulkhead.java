@@ -0,0 +1,59 @@
+package top.ysit.qrlogin.core.resilience;
+
+import top.ysit.qrlogin.core.metrics.QRLoginMetrics;
+import top.ysit.qrlogin.core.resilience.exception.CallRejectedException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 并发舱壁：限制同时执行的调用数，许可在 maxWaitMs 内拿不到即拒绝，避免慢调用占满 worker 线程
+ */
+public class Bulkhead {
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    private final String name;
+    private final int maxConcurrent;
+    private final long maxWaitMs;
+    private final Semaphore permits;
+
+    public Bulkhead(String name, int maxConcurrent, long maxWaitMs) {
+        this.name = name;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxWaitMs = Math.max(0, maxWaitMs);
+        this.permits = new Semaphore(this.maxConcurrent);
+    }
+
+    public <T> T call(Supplier<T> task) {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            QRLoginMetrics.callRejected(name, "bulkhead");
+            throw new CallRejectedException(name + " bulkhead is full", RETRY_AFTER_SECONDS);
+        }
+        try {
+            return task.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int inFlight() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    @Override
+    public String toString() {
+        return "Bulkhead{" + "name=" + name + ", inFlight=" + inFlight() + "/" + maxConcurrent + '}';
+    }
+}
@@ -0,0 +1,101 @@
+package top.ysit.qrlogin.core.resilience;
+
+import top.ysit.qrlogin.core.metrics.QRLoginMetrics;
+import top.ysit.qrlogin.core.resilience.exception.CallRejectedException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 熔断器：连续失败达到阈值后打开，打开期间直接拒绝；openMs 后进入半开，只放行一个探测调用，
+ * 探测成功则关闭，失败则重新打开。
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMs;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAt;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMs) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMs = Math.max(0, openMs);
+    }
+
+    /**
+     * @param isFailure 判断返回值是否算作失败；抛出的运行时异常一律算作失败
+     */
+    public <T> T call(Supplier<T> task, Predicate<T> isFailure) {
+        boolean probe = acquirePermission();
+        T result;
+        try {
+            result = task.get();
+        } catch (RuntimeException e) {
+            onFailure(probe);
+            throw e;
+        }
+        if (isFailure.test(result)) {
+            onFailure(probe);
+        } else {
+            onSuccess(probe);
+        }
+        return result;
+    }
+
+    /**
+     * @return 本次调用是否为半开状态下的探测
+     */
+    private boolean acquirePermission() {
+        State s = state.get();
+        if (s == State.CLOSED) {
+            return false;
+        }
+        long remaining = openedAt + openMs - System.currentTimeMillis();
+        if (s == State.OPEN && remaining <= 0 && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            return true;
+        }
+        QRLoginMetrics.callRejected(name, "circuit_open");
+        throw new CallRejectedException(name + " circuit is " + s.name().toLowerCase(),
+                (int) Math.max(1, (remaining + 999) / 1000));
+    }
+
+    private void onSuccess(boolean probe) {
+        consecutiveFailures.set(0);
+        if (probe) {
+            state.set(State.CLOSED);
+        }
+    }
+
+    private void onFailure(boolean probe) {
+        if (probe) {
+            trip(State.HALF_OPEN);
+        } else if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            trip(State.CLOSED);
+        }
+    }
+
+    private void trip(State from) {
+        // 先写打开时间再切换状态，避免其他线程按旧时间立即进入半开
+        openedAt = System.currentTimeMillis();
+        if (state.compareAndSet(from, State.OPEN)) {
+            consecutiveFailures.set(0);
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{" + "name=" + name + ", state=" + state.get() + '}';
+    }
+}
@@ -0,0 +1,80 @@
+package top.ysit.qrlogin.core.resilience;
+
+import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.core.QRSessionStatus;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 计算 qr/status 响应中的下次轮询间隔建议 next_poll_ms。
+ * <p>
+ * SCANNED 会话缩短到基准间隔的三分之一，用户正在手机上确认，不受负载退避影响；
+ * PENDING 会话每 {@value #BACKOFF_STEP_MS} 毫秒未被扫码间隔翻倍，
+ * 本节点进行中的状态请求(含挂起的长轮询)超过阈值或会话存储饱和时再翻倍，上限为 pollMaxIntervalMs。
+ * <p>
+ * 回调地址在确认时按当前时间签名，回调校验时间戳只允许 timeWindowSeconds 的偏差，前端拿到地址后还要等
+ * {@value #REDIRECT_DELAY_MS} 毫秒才跳转；建议值因此另外不超过时间窗口减去跳转延迟和 {@value #CALLBACK_MARGIN_MS} 毫秒余量，
+ * 保证确认发生在两次轮询之间时回调仍然有效。
+ * 终态返回 0。结果按 {@value #QUANTUM_MS} 毫秒取整，预先序列化的响应体只有少数几种。
+ */
+public class PollAdvisor {
+    private static final long QUANTUM_MS = 250;
+    private static final long BACKOFF_STEP_MS = 30_000;
+    private static final int MAX_BACKOFF_SHIFT = 3;
+    // 前端收到 CONFIRMED 后延迟跳转的时间，见 script.js
+    private static final long REDIRECT_DELAY_MS = 600;
+    // 网络往返和节点间时钟偏差的余量
+    private static final long CALLBACK_MARGIN_MS = 1000;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * 进入一次状态请求(普通轮询或长轮询)，须与 {@link #exit()} 成对调用
+     */
+    public void enter() {
+        inFlight.incrementAndGet();
+    }
+
+    public void exit() {
+        inFlight.decrementAndGet();
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public long nextPollMs(QRLoginConfig cfg, QRSessionStatus status, long createdAt, long nowMillis, boolean saturated) {
+        long base = cfg.getPollIntervalMs();
+        long cap = maxIntervalMs(cfg);
+        long max = Math.min(cap, Math.max(base, cfg.getPollMaxIntervalMs()));
+        return switch (status) {
+            case SCANNED -> Math.min(cap, quantize(base / 3));
+            case PENDING -> {
+                long shift = Math.min(MAX_BACKOFF_SHIFT, Math.max(0, (nowMillis - createdAt) / BACKOFF_STEP_MS));
+                long ms = base << shift;
+                if (saturated || inFlight.get() > cfg.getPollBusyThreshold()) {
+                    ms *= 2;
+                }
+                yield Math.min(cap, quantize(Math.min(max, ms)));
+            }
+            default -> 0;
+        };
+    }
+
+    /**
+     * 建议值上限：时间窗口减去跳转延迟和余量，向下取整，至少 {@value #QUANTUM_MS} 毫秒
+     */
+    static long maxIntervalMs(QRLoginConfig cfg) {
+        long ms = cfg.getTimeWindowSeconds() * 1000 - REDIRECT_DELAY_MS - CALLBACK_MARGIN_MS;
+        return Math.max(QUANTUM_MS, ms / QUANTUM_MS * QUANTUM_MS);
+    }
+
+    private static long quantize(long ms) {
+        return Math.max(QUANTUM_MS, (ms + QUANTUM_MS / 2) / QUANTUM_MS * QUANTUM_MS);
+    }
+
+    @Override
+    public String toString() {
+        return "PollAdvisor{" + "inFlight=" + inFlight.get() + '}';
+    }
+}
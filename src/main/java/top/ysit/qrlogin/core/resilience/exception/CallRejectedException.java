@@ -0,0 +1,17 @@
+package top.ysit.qrlogin.core.resilience.exception;
+
+/**
+ * 调用被舱壁或熔断器直接拒绝，没有实际执行；调用方应返回可重试的错误
+ */
+public class CallRejectedException extends RuntimeException {
+    private final int retryAfterSeconds;
+
+    public CallRejectedException(String message, int retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
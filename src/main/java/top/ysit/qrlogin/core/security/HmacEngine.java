@@ -0,0 +1,182 @@
+package top.ysit.qrlogin.core.security;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HMAC 签名引擎：由 {@link SignatureUtil} 为密钥环中的每把密钥各建一个，每个线程复用一个已 init 的 {@link Mac} 和规范化缓冲区。
+ * 引擎随 SignatureUtil 一起被回收，轮换掉的密钥不会留在内存中；线程私有状态挂在实例的 ThreadLocal 上，随之失效。
+ * <p>
+ * 规范化串为按键名排序的 key=value 以 &amp; 连接（不含 sign 和 kid），与旧实现逐字节一致；
+ * 常见的四个签名字段走固定顺序的快速路径，不再复制和排序参数表。
+ */
+final class HmacEngine {
+    // 按字典序排列的固定签名字段
+    private static final String[] FIXED_FIELDS = {"kc_session", "qr_session", "timestamp", "token"};
+    private static final byte[][] FIXED_PREFIXES = new byte[FIXED_FIELDS.length][];
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+
+    static {
+        for (int i = 0; i < FIXED_FIELDS.length; i++) {
+            // 第一个字段前没有 &
+            FIXED_PREFIXES[i] = ((i == 0 ? "" : "&") + FIXED_FIELDS[i] + "=").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final SecretKeySpec key;
+    private final String algorithm;
+    private final ThreadLocal<State> state;
+
+    private HmacEngine(SignatureConfig.SignatureAlgorithm algorithm, String secret) throws SignatureException {
+        this.algorithm = algorithm.getAlgorithmName();
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), this.algorithm);
+        State probe = newState();
+        this.state = ThreadLocal.withInitial(() -> {
+            try {
+                return newState();
+            } catch (SignatureException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        state.set(probe);
+    }
+
+    static HmacEngine of(SignatureConfig.SignatureAlgorithm algorithm, String secret) throws SignatureException {
+        return new HmacEngine(algorithm, secret);
+    }
+
+    private State newState() throws SignatureException {
+        try {
+            Mac mac = Mac.getInstance(algorithm);
+            mac.init(key);
+            return new State(mac);
+        } catch (GeneralSecurityException e) {
+            throw new SignatureException(algorithm + " failed", e);
+        }
+    }
+
+    /**
+     * 计算签名并以小写十六进制返回
+     */
+    String sign(Map<String, String> params) {
+        return toHex(mac(params));
+    }
+
+    /**
+     * 恒定时间比较十六进制签名
+     */
+    boolean verify(Map<String, String> params, String hexSign) {
+        byte[] expected = mac(params);
+        byte[] actual = fromHex(hexSign, expected.length);
+        return actual != null && MessageDigest.isEqual(expected, actual);
+    }
+
+    private byte[] mac(Map<String, String> params) {
+        State s = state.get();
+        s.len = 0;
+        if (isFixed(params)) {
+            for (int i = 0; i < FIXED_FIELDS.length; i++) {
+                s.append(FIXED_PREFIXES[i]);
+                s.appendUtf8(String.valueOf(params.get(FIXED_FIELDS[i])));
+            }
+        } else {
+            List<String> keys = new ArrayList<>(params.keySet());
+            keys.remove("sign");
+            keys.remove("kid");
+            Collections.sort(keys);
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0) s.append((byte) '&');
+                s.appendUtf8(keys.get(i));
+                s.append((byte) '=');
+                s.appendUtf8(String.valueOf(params.get(keys.get(i))));
+            }
+        }
+        s.mac.update(s.buf, 0, s.len);
+        return s.mac.doFinal();
+    }
+
+    private static boolean isFixed(Map<String, String> params) {
+        int expectedSize = FIXED_FIELDS.length + (params.containsKey("sign") ? 1 : 0) + (params.containsKey("kid") ? 1 : 0);
+        if (params.size() != expectedSize) return false;
+        for (String f : FIXED_FIELDS) {
+            if (!params.containsKey(f)) return false;
+        }
+        return true;
+    }
+
+    private static String toHex(byte[] bytes) {
+        byte[] out = new byte[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            out[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(out, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] fromHex(String hex, int expectedBytes) {
+        if (hex == null || hex.length() != expectedBytes * 2) return null;
+        byte[] out = new byte[expectedBytes];
+        for (int i = 0; i < expectedBytes; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) return null;
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+
+    /**
+     * 线程私有的 Mac 和规范化缓冲区
+     */
+    private static final class State {
+        private final Mac mac;
+        private byte[] buf = new byte[512];
+        private int len;
+
+        State(Mac mac) {
+            this.mac = mac;
+        }
+
+        void append(byte b) {
+            ensure(1);
+            buf[len++] = b;
+        }
+
+        void append(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, len, bytes.length);
+            len += bytes.length;
+        }
+
+        // 签名字段几乎都是 ASCII，逐字符写入；遇到非 ASCII 再整体编码
+        void appendUtf8(String s) {
+            int n = s.length();
+            ensure(n);
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    // 覆盖已写入的 ASCII 前缀
+                    append(s.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                buf[len + i] = (byte) c;
+            }
+            len += n;
+        }
+
+        private void ensure(int extra) {
+            if (len + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+            }
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package top.ysit.qrlogin.core.security;
 
+import java.util.List;
+
 public class SignatureConfig {
     private String secret;
     private SignatureAlgorithm algorithm;
     private long timeWindowSeconds;
+    // 密钥环，为空时只使用 secret
+    private List<SigningKey> keys = List.of();
+    // 服务端签名、二维码下发以及未携带 kid 的请求使用的密钥
+    private String activeKid;
 
     public SignatureConfig() {
         // 默认配置
@@ -42,6 +48,22 @@ public class SignatureConfig {
         this.timeWindowSeconds = timeWindowSeconds;
     }
 
+    public List<SigningKey> getKeys() {
+        return keys;
+    }
+
+    public void setKeys(List<SigningKey> keys) {
+        this.keys = keys;
+    }
+
+    public String getActiveKid() {
+        return activeKid;
+    }
+
+    public void setActiveKid(String activeKid) {
+        this.activeKid = activeKid;
+    }
+
     public enum SignatureAlgorithm {
         HMAC_SHA256("HmacSHA256"),
         HMAC_SHA1("HmacSHA1"),
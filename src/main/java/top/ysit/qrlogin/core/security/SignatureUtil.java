@@ -1,23 +1,51 @@
 // 修改后的 SignatureUtil.java
 package top.ysit.qrlogin.core.security;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class SignatureUtil {
+    // 未配置密钥环时单一 secret 的密钥ID
+    public static final String DEFAULT_KID = "default";
+
     private final SignatureConfig config;
+    // kid -> 密钥及其预先初始化的 HMAC 引擎
+    private final Map<String, KeyEntry> keyring = new HashMap<>();
+    // 按配置顺序，配置的活动密钥不在有效期内时从中选择替代密钥
+    private final List<KeyEntry> ordered = new ArrayList<>();
+    // 配置的活动密钥ID
+    private final String activeKid;
 
     public SignatureUtil(SignatureConfig config) throws SignatureException {
         if (config == null) {
             throw new SignatureException("Configuration must not be null");
         }
-        if (config.getSecret() == null || config.getSecret().isEmpty()) {
-            throw new SignatureException("Secret must not be null or empty");
+        List<SigningKey> keys = config.getKeys();
+        if (keys == null || keys.isEmpty()) {
+            if (config.getSecret() == null || config.getSecret().isEmpty()) {
+                throw new SignatureException("Secret must not be null or empty");
+            }
+            keys = List.of(new SigningKey(DEFAULT_KID, config.getSecret(), 0, 0));
+        }
+        for (SigningKey key : keys) {
+            if (key.secret() == null || key.secret().isEmpty()) {
+                throw new SignatureException("Secret of key " + key.kid() + " must not be null or empty");
+            }
+            KeyEntry entry = new KeyEntry(key, HmacEngine.of(config.getAlgorithm(), key.secret()));
+            if (keyring.put(key.kid(), entry) != null) {
+                throw new SignatureException("Duplicate key id " + key.kid());
+            }
+            ordered.add(entry);
+        }
+        this.activeKid = config.getActiveKid() == null || config.getActiveKid().isEmpty() ? keys.get(0).kid() : config.getActiveKid();
+        if (!keyring.containsKey(activeKid)) {
+            throw new SignatureException("Active key id " + activeKid + " is not in the keyring");
+        }
+        if (activeEntry(System.currentTimeMillis() / 1000) == null) {
+            throw new SignatureException("No key in the keyring is inside its validity window");
         }
         this.config = config;
     }
@@ -33,8 +61,7 @@ public class SignatureUtil {
         if (!params.containsKey("timestamp")) {
             throw new SignatureException("Missing 'timestamp'");
         }
-        String queryString = buildQueryString(params);
-        return hmacSha256(queryString, config.getSecret());
+        return activeKey().engine().sign(params);
     }
 
     /**
@@ -49,13 +76,10 @@ public class SignatureUtil {
         // 验证时间戳
         validateTimestamp(params.get("timestamp"));
 
-        // 重新计算签名（排除 sign）
-        Map<String, String> signParams = new HashMap<>(params);
-        signParams.remove("sign");
-        String queryString = buildQueryString(signParams);
-        String expectedSign = hmacSha256(queryString, config.getSecret());
-
-        if (!safeEquals(sign, expectedSign)) {
+        // 按 kid 直接定位密钥，重新计算签名（排除 sign 和 kid）并恒定时间比较
+        String kid = params.get("kid");
+        KeyEntry entry = kid == null || kid.isEmpty() ? activeKey() : key(kid);
+        if (!entry.engine().verify(params, sign)) {
             throw new SignatureException("Invalid signature");
         }
 
@@ -84,45 +108,61 @@ public class SignatureUtil {
         }
     }
 
-    private String buildQueryString(Map<String, String> params) {
-        List<String> keys = new ArrayList<>(params.keySet());
-        Collections.sort(keys);
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < keys.size(); i++) {
-            String key = keys.get(i);
-            String value = params.getOrDefault(key, "");
-            if (i > 0) sb.append("&");
-            sb.append(key).append("=").append(value);
+    /**
+     * qr/status 等热路径使用的时间戳检查：手工解析十进制秒数，不抛异常、不分配对象
+     */
+    public boolean isTimestampFresh(String timestampStr) {
+        int n = timestampStr.length();
+        if (n == 0 || n > 18) return false;
+        long timestampSec = 0;
+        for (int i = 0; i < n; i++) {
+            char c = timestampStr.charAt(i);
+            if (c < '0' || c > '9') return false;
+            timestampSec = timestampSec * 10 + (c - '0');
         }
-        return sb.toString();
+        return Math.abs(System.currentTimeMillis() / 1000 - timestampSec) <= config.getTimeWindowSeconds();
     }
 
-    private String hmacSha256(String data, String key) throws SignatureException {
-        try {
-            Mac mac = Mac.getInstance(config.getAlgorithm().toString());
-            SecretKeySpec secretKey = new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), config.getAlgorithm().toString());
-            mac.init(secretKey);
-            byte[] hash = mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
-            return bytesToHex(hash);
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            throw new SignatureException("HMAC-SHA256 failed", e);
+    /**
+     * 服务端签名和二维码中下发的密钥ID：配置的活动密钥不在有效期内时，改用有效期内最新生效的密钥
+     */
+    public String getActiveKid() {
+        KeyEntry entry = activeEntry(System.currentTimeMillis() / 1000);
+        return entry == null ? activeKid : entry.key().kid();
+    }
+
+    private KeyEntry activeKey() throws SignatureException {
+        return key(getActiveKid());
+    }
+
+    /**
+     * @return 当前应使用的密钥；没有任何密钥在有效期内时返回 null
+     */
+    private KeyEntry activeEntry(long nowSec) {
+        KeyEntry preferred = keyring.get(activeKid);
+        if (preferred.key().isValidAt(nowSec)) {
+            return preferred;
         }
+        KeyEntry newest = null;
+        for (KeyEntry entry : ordered) {
+            if (entry.key().isValidAt(nowSec) && (newest == null || entry.key().notBefore() >= newest.key().notBefore())) {
+                newest = entry;
+            }
+        }
+        return newest;
     }
 
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
+    private KeyEntry key(String kid) throws SignatureException {
+        KeyEntry entry = keyring.get(kid);
+        if (entry == null) {
+            throw new SignatureException("Unknown key id");
+        }
+        if (!entry.key().isValidAt(System.currentTimeMillis() / 1000)) {
+            throw new SignatureException("Key " + kid + " is outside its validity window");
         }
-        return sb.toString();
+        return entry;
     }
 
-    // 恒定时间比较（防时序攻击）
-    private boolean safeEquals(String a, String b) {
-        if (a == null || b == null) return false;
-        if (a.length() != b.length()) return false;
-        byte[] aBytes = a.getBytes(StandardCharsets.UTF_8);
-        byte[] bBytes = b.getBytes(StandardCharsets.UTF_8);
-        return Arrays.equals(aBytes, bBytes); // 在大多数 JVM 实现中足够安全
+    private record KeyEntry(SigningKey key, HmacEngine engine) {
     }
 }
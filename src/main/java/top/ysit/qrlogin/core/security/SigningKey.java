@@ -0,0 +1,53 @@
+package top.ysit.qrlogin.core.security;
+
+import java.security.SignatureException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 密钥环中的一把 HMAC 密钥
+ *
+ * @param kid       密钥ID，App 随 sign 一起提交
+ * @param notBefore 生效时间（epoch 秒），0 表示不限制
+ * @param notAfter  失效时间（epoch 秒），0 表示不限制
+ */
+public record SigningKey(String kid, String secret, long notBefore, long notAfter) {
+
+    public boolean isValidAt(long epochSecond) {
+        return (notBefore == 0 || epochSecond >= notBefore) && (notAfter == 0 || epochSecond < notAfter);
+    }
+
+    /**
+     * 解析密钥环配置，每行一把：kid=secret[|notBefore[|notAfter]]，时间为 ISO-8601，如 2026-01-01T00:00:00Z；
+     * 空行和 # 开头的行忽略
+     */
+    public static List<SigningKey> parseAll(String text) throws SignatureException {
+        List<SigningKey> keys = new ArrayList<>();
+        if (text == null) return keys;
+        for (String raw : text.split("\\R")) {
+            String line = raw.strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            int eq = line.indexOf('=');
+            if (eq <= 0 || eq == line.length() - 1) {
+                throw new SignatureException("Invalid key line, expected kid=secret");
+            }
+            String kid = line.substring(0, eq).strip();
+            String[] parts = line.substring(eq + 1).split("\\|", -1);
+            try {
+                long notBefore = parts.length > 1 && !parts[1].isBlank() ? Instant.parse(parts[1].strip()).getEpochSecond() : 0;
+                long notAfter = parts.length > 2 && !parts[2].isBlank() ? Instant.parse(parts[2].strip()).getEpochSecond() : 0;
+                keys.add(new SigningKey(kid, parts[0], notBefore, notAfter));
+            } catch (RuntimeException e) {
+                throw new SignatureException("Invalid validity window for key " + kid, e);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public String toString() {
+        // 不输出密钥内容
+        return "SigningKey{" + "kid=" + kid + ", notBefore=" + notBefore + ", notAfter=" + notAfter + '}';
+    }
+}
@@ -0,0 +1,81 @@
+package top.ysit.qrlogin.core.store;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * 哈希时间轮：按到期时间把会话ID挂到对应槽位，每次推进只处理已到期的槽位，
+ * 清理成本与到期数量成正比而不是与存活会话总数成正比。
+ * <p>
+ * 同一个 store 内所有会话 TTL 相同，轮盘跨度覆盖 TTL 即可保证绝大多数条目在第一圈到期，
+ * 因此只用单层轮；超出跨度的条目会在到期前被重新挂回。
+ */
+class ExpiryWheel {
+    private final long tickMs;
+    private final Queue<Entry>[] slots;
+    private final int mask;
+    // 保护 cursor：登记时读取 cursor 选槽位并入队，与推进时移动 cursor 互斥，
+    // 否则登记线程可能把条目挂到刚处理完的槽位上，等满一圈才到期
+    private final Object lock = new Object();
+    // 下一个待处理的绝对 tick，仅推进线程写入
+    private long cursor;
+
+    @SuppressWarnings("unchecked")
+    ExpiryWheel(long tickMs, long spanMs, long nowMs) {
+        this.tickMs = tickMs;
+        int size = Integer.highestOneBit((int) Math.max(2, spanMs / tickMs + 2) - 1) << 1;
+        this.slots = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.mask = size - 1;
+        this.cursor = nowMs / tickMs;
+    }
+
+    /**
+     * 登记一个到期时间，已过期的条目挂到下一个待处理槽位
+     */
+    void schedule(String id, long expireAtMs) {
+        long expireTick = ceilTick(expireAtMs);
+        synchronized (lock) {
+            long tick = Math.max(expireTick, cursor);
+            slots[(int) (tick & mask)].add(new Entry(id, tick));
+        }
+    }
+
+    /**
+     * 推进到 nowMs，对每个到期条目回调 onExpire；只允许单线程调用
+     */
+    void advance(long nowMs, Consumer<String> onExpire) {
+        long nowTick = nowMs / tickMs;
+        long start;
+        synchronized (lock) {
+            start = cursor;
+        }
+        for (long t = start; t <= nowTick; t++) {
+            Queue<Entry> slot = slots[(int) (t & mask)];
+            // 移动 cursor 之后登记的条目落到后续槽位；之前登记的已在队列中，计入下面的长度。回调不持有锁
+            synchronized (lock) {
+                cursor = t + 1;
+            }
+            // 以进入时的长度为界，未到期条目重新入队后不会在本次被重复处理
+            for (int n = slot.size(); n > 0; n--) {
+                Entry e = slot.poll();
+                if (e == null) break;
+                if (e.tick <= nowTick) {
+                    onExpire.accept(e.id);
+                } else {
+                    slot.add(e);
+                }
+            }
+        }
+    }
+
+    private long ceilTick(long ms) {
+        return (ms + tickMs - 1) / tickMs;
+    }
+
+    private record Entry(String id, long tick) {
+    }
+}
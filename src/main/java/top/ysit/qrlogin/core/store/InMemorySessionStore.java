@@ -3,22 +3,63 @@ package top.ysit.qrlogin.core.store;
 import top.ysit.qrlogin.config.QRLoginConfig;
 import top.ysit.qrlogin.core.QRSession;
 import top.ysit.qrlogin.core.QRSessionStatus;
+import top.ysit.qrlogin.core.SessionStatusListener;
 import top.ysit.qrlogin.core.SessionStore;
+import top.ysit.qrlogin.core.metrics.QRLoginMetrics;
+import top.ysit.qrlogin.core.notify.LocalStatusNotifier;
+import top.ysit.qrlogin.core.notify.StatusNotifier;
+import top.ysit.qrlogin.core.store.exception.StoreSaturatedException;
 
-import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.function.UnaryOperator;
 
+/**
+ * 有界内存会话存储。
+ * <p>
+ * 容量满时按 FIFO + 二次机会淘汰：只淘汰 PENDING 会话，被前端轮询过的会话先获得一次保留机会，
+ * 从未被查看过的（典型的刷接口产生的）二维码最先被淘汰；SCANNED/CONFIRMED 会话不参与淘汰。
+ * 无可淘汰会话时拒绝新建并抛出 {@link StoreSaturatedException}。容量为软上限，并发写入可能短暂超出少量条目。
+ */
 public class InMemorySessionStore implements SessionStore {
+    // 存储饱和时建议客户端的重试间隔
+    private static final int RETRY_AFTER_SECONDS = 5;
+
     private final ConcurrentMap<String, QRSession> map = new ConcurrentHashMap<>();
+    // 按写入顺序排列的会话ID，淘汰时从队头扫描
+    private final Queue<String> admission = new ConcurrentLinkedQueue<>();
+    // 自上次扫描以来被读取过的 PENDING 会话
+    private final Set<String> referenced = ConcurrentHashMap.newKeySet();
+    // 每个浏览器根会话当前持有的二维码，按创建顺序
+    private final ConcurrentMap<String, Deque<String>> byBrowser = new ConcurrentHashMap<>();
+    private final StatusNotifier notifier;
     private final ScheduledExecutorService cleaner;
-    // 清理周期
-    private final long cleanupInterval = 30; // 每 30 秒清理一次
+    // 时间轮推进周期，也是过期通知的最大延迟
+    private final long tickMillis = 250;
+    private final ExpiryWheel wheel;
+    private final int maxSessions;
+    private final int maxPerBrowser;
+    private volatile boolean saturated;
     // 默认会话有效期，单位：秒
     private long sessionTimeout = 120; // 2 分钟
 
     public InMemorySessionStore(QRLoginConfig cfg) {
+        this(cfg, new LocalStatusNotifier());
+    }
+
+    public InMemorySessionStore(QRLoginConfig cfg, StatusNotifier notifier) {
 
+        this.notifier = notifier;
         this.sessionTimeout = cfg.getSessionTtlSeconds();
+        this.maxSessions = Math.max(1, cfg.getMaxSessions());
+        this.maxPerBrowser = Math.max(1, cfg.getMaxSessionsPerBrowser());
+        this.wheel = new ExpiryWheel(tickMillis, sessionTimeout * 1000, System.currentTimeMillis());
 
         cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
             Thread t = new Thread(r, "qr-session-cleaner");
@@ -27,69 +68,229 @@ public class InMemorySessionStore implements SessionStore {
         });
 
         cleaner.scheduleAtFixedRate(this::cleanupExpiredSessions,
-                cleanupInterval, cleanupInterval, TimeUnit.SECONDS);
+                tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+
+        QRLoginMetrics.bindSessionStore(this, map::size, maxSessions, () -> saturated);
     }
 
     @Override
     public void put(QRSession s) {
-        s.setCreatedAt(Instant.now());
-        map.put(s.getSessionId(), s);
+        // 先判断容量再让同一浏览器的旧二维码失效，拒绝新建时旧二维码保持可用
+        if (map.size() - supersededCount(s) >= maxSessions && !makeRoom()) {
+            saturated = true;
+            QRLoginMetrics.sessionRejected();
+            throw new StoreSaturatedException("QR session store is full", RETRY_AFTER_SECONDS);
+        }
+        limitBrowser(s);
+        saturated = false;
+        map.put(s.sessionId(), s);
+        admission.add(s.sessionId());
+        wheel.schedule(s.sessionId(), s.expireAt());
     }
 
     @Override
     public QRSession get(String id) {
-        return map.get(id);
+        QRSession s = map.get(id);
+        if (s != null && s.status() == QRSessionStatus.PENDING && !referenced.contains(id)) {
+            referenced.add(id);
+        }
+        return s;
     }
 
     @Override
     public void setConfirmed(String id, String email) {
-        map.computeIfPresent(id, (k, v) -> {
-            v.setStatus(QRSessionStatus.CONFIRMED);
-            v.setEmail(email);
-            return v;
-        });
+        confirm(id, email, null);
     }
 
     @Override
     public void setScanned(String id) {
-        map.computeIfPresent(id, (k, v) -> {
-            v.setStatus(QRSessionStatus.SCANNED);
-            return v;
-        });
+        if (transition(id, v -> v.status() == QRSessionStatus.PENDING ? v.withStatus(QRSessionStatus.SCANNED) : null)) {
+            fireStatusChanged(id, QRSessionStatus.SCANNED);
+        }
+    }
+
+    /**
+     * 回调地址和 CONFIRMED 状态在同一次 compute 中写入，只允许从 SCANNED 迁移
+     */
+    @Override
+    public void confirm(String id, String email, String url) {
+        if (transition(id, v -> {
+            if (v.status() != QRSessionStatus.SCANNED) return null;
+            QRSession next = v.withStatus(QRSessionStatus.CONFIRMED).withEmail(email);
+            return url == null ? next : next.withResponseUrl(url);
+        })) {
+            fireStatusChanged(id, QRSessionStatus.CONFIRMED);
+        }
     }
 
     @Override
     public void setResponseUrl(String sessionId, String url) {
-        map.computeIfPresent(sessionId, (k, v) -> {
-            v.setResponseUrl(url);
-            return v;
-        });
+        map.computeIfPresent(sessionId, (k, v) -> v.withResponseUrl(url));
     }
 
     @Override
     public void expire(String id) {
-        map.computeIfPresent(id, (k, v) -> {
-            v.setStatus(QRSessionStatus.EXPIRED);
-            return v;
-        });
+        QRSession s = map.computeIfPresent(id, (k, v) -> v.withStatus(QRSessionStatus.EXPIRED));
+        if (s != null) fireStatusChanged(id, QRSessionStatus.EXPIRED);
     }
 
     @Override
     public void delete(String id) {
-        map.remove(id);
+        QRSession s = map.remove(id);
+        if (s != null) forget(s);
+    }
+
+    @Override
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    @Override
+    public void addListener(SessionStatusListener listener) {
+        notifier.subscribe(listener);
+    }
+
+    @Override
+    public void removeListener(SessionStatusListener listener) {
+        notifier.unsubscribe(listener);
+    }
+
+    /**
+     * 登记新二维码后该浏览器会有多少个 PENDING 二维码被 {@link #limitBrowser} 淘汰，只读不修改
+     */
+    private int supersededCount(QRSession s) {
+        if (s.kcSessionId() == null) return 0;
+        int[] count = {0};
+        byBrowser.computeIfPresent(s.kcSessionId(), (k, ids) -> {
+            int excess = ids.size() + 1 - maxPerBrowser;
+            for (Iterator<String> it = ids.iterator(); excess > 0 && it.hasNext(); ) {
+                QRSession cur = map.get(it.next());
+                if (cur == null || cur.status() == QRSessionStatus.PENDING) {
+                    excess--;
+                    if (cur != null) count[0]++;
+                }
+            }
+            return ids;
+        });
+        return count[0];
+    }
+
+    /**
+     * 登记到浏览器名下；超出上限时让该浏览器最早的 PENDING 二维码失效
+     */
+    private void limitBrowser(QRSession s) {
+        if (s.kcSessionId() == null) return;
+        List<String> superseded = new ArrayList<>();
+        byBrowser.compute(s.kcSessionId(), (k, ids) -> {
+            if (ids == null) ids = new ArrayDeque<>();
+            int excess = ids.size() + 1 - maxPerBrowser;
+            for (Iterator<String> it = ids.iterator(); excess > 0 && it.hasNext(); ) {
+                String id = it.next();
+                QRSession cur = map.get(id);
+                if (cur == null || cur.status() == QRSessionStatus.PENDING) {
+                    it.remove();
+                    excess--;
+                    if (cur != null) superseded.add(id);
+                }
+            }
+            ids.addLast(s.sessionId());
+            return ids;
+        });
+        for (String id : superseded) {
+            evict(id, "browser");
+        }
+    }
+
+    /**
+     * 从队头开始二次机会扫描，直到腾出空间或扫完一轮
+     */
+    private synchronized boolean makeRoom() {
+        for (int budget = admission.size(); budget > 0 && map.size() >= maxSessions; budget--) {
+            String id = admission.poll();
+            if (id == null) break;
+            QRSession s = map.get(id);
+            // 已移除或已扫码的会话不再参与淘汰，直接出队
+            if (s == null || s.status() != QRSessionStatus.PENDING) continue;
+            if (referenced.remove(id)) {
+                admission.add(id);
+                continue;
+            }
+            evict(id, "capacity");
+        }
+        return map.size() < maxSessions;
+    }
+
+    // 丢弃队头已不存在的会话ID，使队列长度跟随存活会话数
+    private synchronized void trimAdmission() {
+        String id;
+        while ((id = admission.peek()) != null && !map.containsKey(id)) {
+            admission.poll();
+        }
+    }
+
+    private void evict(String id, String reason) {
+        QRSession s = map.get(id);
+        if (s == null || s.status() != QRSessionStatus.PENDING || !map.remove(id, s)) return;
+        forget(s);
+        QRLoginMetrics.sessionEvicted(reason);
+        fireStatusChanged(id, QRSessionStatus.EXPIRED);
+    }
+
+    private void forget(QRSession s) {
+        referenced.remove(s.sessionId());
+        if (s.kcSessionId() == null) return;
+        byBrowser.computeIfPresent(s.kcSessionId(), (k, ids) -> {
+            ids.remove(s.sessionId());
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /**
+     * 在桶锁内检查当前状态并迁移；mutator 返回 null 表示当前状态不允许迁移，会话保持不变
+     */
+    private boolean transition(String id, UnaryOperator<QRSession> mutator) {
+        boolean[] changed = {false};
+        map.computeIfPresent(id, (k, v) -> {
+            QRSession next = mutator.apply(v);
+            if (next == null) return v;
+            changed[0] = true;
+            return next;
+        });
+        return changed[0];
+    }
+
+    // 在 compute 之外发布，避免监听器在持有桶锁时重入 map
+    private void fireStatusChanged(String id, QRSessionStatus status) {
+        notifier.publish(id, status);
     }
 
     private void cleanupExpiredSessions() {
-        Instant now = Instant.now();
-        map.values().removeIf(s -> {
-            if (s.getStatus() == QRSessionStatus.EXPIRED) return true;
-            return s.getCreatedAt() != null &&
-                    now.isAfter(s.getCreatedAt().plusSeconds(sessionTimeout));
+        try {
+            wheel.advance(System.currentTimeMillis(), this::expireDue);
+            trimAdmission();
+            if (saturated && map.size() < maxSessions) saturated = false;
+        } catch (RuntimeException ignored) {
+            // 保证调度线程不会因单次异常而停止
+        }
+    }
+
+    // 到期即移出存储并以 EXPIRED 通知等待者
+    private void expireDue(String id) {
+        long now = System.currentTimeMillis();
+        QRSession[] expired = {null};
+        map.computeIfPresent(id, (k, v) -> {
+            if (!v.isExpired(now)) return v;
+            expired[0] = v;
+            return null;
         });
+        if (expired[0] != null) {
+            forget(expired[0]);
+            fireStatusChanged(id, QRSessionStatus.EXPIRED);
+        }
     }
 
     @Override
     public String toString() {
-        return "InMemorySessionStore{" + "sessions=" + map.size() + '}';
+        return "InMemorySessionStore{" + "sessions=" + map.size() + ", capacity=" + maxSessions + '}';
     }
 }
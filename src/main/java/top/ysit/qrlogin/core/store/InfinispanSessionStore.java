@@ -0,0 +1,147 @@
+package top.ysit.qrlogin.core.store;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.core.QRSession;
+import top.ysit.qrlogin.core.QRSessionCodec;
+import top.ysit.qrlogin.core.QRSessionStatus;
+import top.ysit.qrlogin.core.SessionStatusListener;
+import top.ysit.qrlogin.core.SessionStore;
+import top.ysit.qrlogin.core.notify.InfinispanStatusNotifier;
+import top.ysit.qrlogin.core.notify.StatusNotifier;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Infinispan 会话存储：复用 Keycloak 内置的 cache container，在其中定义一个分布式缓存，
+ * 过期交给条目 lifespan，状态迁移使用条件 replace 保证多节点并发下只有一次成功。
+ */
+public class InfinispanSessionStore implements SessionStore {
+    public static final String CACHE_NAME = "qrlogin-sessions";
+    private static final int MAX_CAS_RETRIES = 8;
+
+    private final Cache<String, String> cache;
+    private final StatusNotifier notifier;
+
+    public InfinispanSessionStore(KeycloakSession session, QRLoginConfig cfg) {
+        this(session.getProvider(InfinispanConnectionProvider.class)
+                .getCache(InfinispanConnectionProvider.WORK_CACHE_NAME).getCacheManager(), cfg);
+    }
+
+    /**
+     * 在给定的 cache container 中定义并使用会话缓存；集群模式下为 DIST_SYNC 并按配置设置副本数，单机为 LOCAL
+     */
+    InfinispanSessionStore(EmbeddedCacheManager cacheManager, QRLoginConfig cfg) {
+        if (cacheManager.getCacheConfiguration(CACHE_NAME) == null) {
+            ConfigurationBuilder builder = new ConfigurationBuilder();
+            if (cacheManager.getCacheManagerConfiguration().isClustered()) {
+                builder.clustering().cacheMode(CacheMode.DIST_SYNC).hash().numOwners(cfg.getInfinispanOwners());
+            } else {
+                builder.clustering().cacheMode(CacheMode.LOCAL);
+            }
+            builder.expiration().lifespan(cfg.getSessionTtlSeconds(), TimeUnit.SECONDS);
+            cacheManager.defineConfiguration(CACHE_NAME, builder.build());
+        }
+        this.cache = cacheManager.getCache(CACHE_NAME);
+        this.notifier = new InfinispanStatusNotifier(cache);
+    }
+
+    @Override
+    public void put(QRSession s) {
+        long lifespan = s.expireAt() - System.currentTimeMillis();
+        cache.put(s.sessionId(), QRSessionCodec.encodeToString(s), Math.max(1, lifespan), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public QRSession get(String sessionId) {
+        String value = cache.get(sessionId);
+        return value == null ? null : QRSessionCodec.decodeFromString(sessionId, value);
+    }
+
+    @Override
+    public void setScanned(String sessionId) {
+        if (transition(sessionId, s -> s.status() == QRSessionStatus.PENDING ? s.withStatus(QRSessionStatus.SCANNED) : null)) {
+            fireStatusChanged(sessionId, QRSessionStatus.SCANNED);
+        }
+    }
+
+    @Override
+    public void setConfirmed(String sessionId, String userId) {
+        confirm(sessionId, userId, null);
+    }
+
+    @Override
+    public void setResponseUrl(String sessionId, String url) {
+        transition(sessionId, s -> s.withResponseUrl(url));
+    }
+
+    /**
+     * 回调地址和 CONFIRMED 状态在同一次条件 replace 中写入
+     */
+    @Override
+    public void confirm(String sessionId, String userId, String url) {
+        if (transition(sessionId, s -> {
+            if (s.status() != QRSessionStatus.SCANNED) return null;
+            QRSession next = s.withStatus(QRSessionStatus.CONFIRMED).withEmail(userId);
+            return url == null ? next : next.withResponseUrl(url);
+        })) {
+            fireStatusChanged(sessionId, QRSessionStatus.CONFIRMED);
+        }
+    }
+
+    @Override
+    public void expire(String sessionId) {
+        if (transition(sessionId, s -> s.withStatus(QRSessionStatus.EXPIRED))) {
+            fireStatusChanged(sessionId, QRSessionStatus.EXPIRED);
+        }
+    }
+
+    @Override
+    public void delete(String sessionId) {
+        cache.remove(sessionId);
+    }
+
+    @Override
+    public void addListener(SessionStatusListener listener) {
+        notifier.subscribe(listener);
+    }
+
+    @Override
+    public void removeListener(SessionStatusListener listener) {
+        notifier.unsubscribe(listener);
+    }
+
+    /**
+     * 读取-修改-条件替换，冲突时重试；mutator 返回 null 表示当前状态不允许迁移
+     */
+    private boolean transition(String sessionId, UnaryOperator<QRSession> mutator) {
+        for (int i = 0; i < MAX_CAS_RETRIES; i++) {
+            String old = cache.get(sessionId);
+            if (old == null) return false;
+            QRSession s = mutator.apply(QRSessionCodec.decodeFromString(sessionId, old));
+            if (s == null) return false;
+            // 不带 lifespan 的 replace 会重置为缓存默认值，这里保持原到期时间
+            long lifespan = s.expireAt() - System.currentTimeMillis();
+            if (lifespan <= 0) return false;
+            if (cache.replace(sessionId, old, QRSessionCodec.encodeToString(s), lifespan, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void fireStatusChanged(String id, QRSessionStatus status) {
+        notifier.publish(id, status);
+    }
+
+    @Override
+    public String toString() {
+        return "InfinispanSessionStore{" + "cache=" + CACHE_NAME + '}';
+    }
+}
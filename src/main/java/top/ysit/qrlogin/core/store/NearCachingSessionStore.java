@@ -0,0 +1,156 @@
+package top.ysit.qrlogin.core.store;
+
+import top.ysit.qrlogin.core.QRSession;
+import top.ysit.qrlogin.core.QRSessionStatus;
+import top.ysit.qrlogin.core.SessionStatusListener;
+import top.ysit.qrlogin.core.SessionStore;
+import top.ysit.qrlogin.core.notify.LocalStatusNotifier;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 远程存储的本节点近端缓存：状态查询优先读本地快照，快照由集群状态通知失效，
+ * 通知丢失时最多 maxAgeMs 后回源，避免每次轮询都访问共享存储。
+ * <p>
+ * 快照和失效标记都在 maxAgeMs 后过期，每隔 maxAgeMs（至少 {@value #MIN_SWEEP_INTERVAL_MS} 毫秒）顺带清扫一次，
+ * 不依赖条目数达到上限。
+ */
+public class NearCachingSessionStore implements SessionStore, SessionStatusListener {
+    private static final long MIN_SWEEP_INTERVAL_MS = 1000;
+
+    private final SessionStore delegate;
+    private final ConcurrentMap<String, Entry> near = new ConcurrentHashMap<>();
+    // 先失效近端缓存，再通知本节点订阅者，保证被唤醒的等待者读到新状态
+    private final LocalStatusNotifier listeners = new LocalStatusNotifier();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong lastSweepAt = new AtomicLong(System.currentTimeMillis());
+    private final long maxAgeMs;
+    private final long sweepIntervalMs;
+    private final int maxEntries;
+
+    public NearCachingSessionStore(SessionStore delegate, long maxAgeMs, int maxEntries) {
+        this.delegate = delegate;
+        this.maxAgeMs = maxAgeMs;
+        this.sweepIntervalMs = Math.max(maxAgeMs, MIN_SWEEP_INTERVAL_MS);
+        this.maxEntries = maxEntries;
+        delegate.addListener(this);
+    }
+
+    @Override
+    public void put(QRSession s) {
+        delegate.put(s);
+        near.remove(s.sessionId());
+    }
+
+    @Override
+    public QRSession get(String sessionId) {
+        long now = System.currentTimeMillis();
+        Entry e = near.get(sessionId);
+        if (e != null && e.session != null && now - e.loadedAt <= maxAgeMs
+                && !e.session.isExpired(now)) {
+            return e.session;
+        }
+
+        long ticket = sequence.get();
+        QRSession s = delegate.get(sessionId);
+        if (s == null) {
+            near.remove(sessionId);
+            return null;
+        }
+        sweep(now);
+        if (near.size() >= maxEntries) {
+            near.clear();
+        }
+        // 回源期间若收到更新的失效通知，保留失效标记而不是写回旧快照
+        near.compute(sessionId, (k, cur) -> cur != null && cur.session == null && cur.seq > ticket ? cur : new Entry(s, now, ticket));
+        return s;
+    }
+
+    @Override
+    public void setScanned(String sessionId) {
+        delegate.setScanned(sessionId);
+        invalidate(sessionId);
+    }
+
+    @Override
+    public void setConfirmed(String sessionId, String userId) {
+        delegate.setConfirmed(sessionId, userId);
+        invalidate(sessionId);
+    }
+
+    @Override
+    public void setResponseUrl(String sessionId, String url) {
+        delegate.setResponseUrl(sessionId, url);
+        invalidate(sessionId);
+    }
+
+    @Override
+    public void confirm(String sessionId, String userId, String url) {
+        delegate.confirm(sessionId, userId, url);
+        invalidate(sessionId);
+    }
+
+    @Override
+    public void expire(String sessionId) {
+        delegate.expire(sessionId);
+        invalidate(sessionId);
+    }
+
+    @Override
+    public void delete(String sessionId) {
+        delegate.delete(sessionId);
+        near.remove(sessionId);
+    }
+
+    @Override
+    public boolean isSaturated() {
+        return delegate.isSaturated();
+    }
+
+    @Override
+    public void addListener(SessionStatusListener listener) {
+        listeners.subscribe(listener);
+    }
+
+    @Override
+    public void removeListener(SessionStatusListener listener) {
+        listeners.unsubscribe(listener);
+    }
+
+    @Override
+    public void onStatusChanged(String sessionId, QRSessionStatus status) {
+        invalidate(sessionId);
+        listeners.publish(sessionId, status);
+    }
+
+    private void invalidate(String sessionId) {
+        long now = System.currentTimeMillis();
+        sweep(now);
+        near.put(sessionId, new Entry(null, now, sequence.incrementAndGet()));
+    }
+
+    /**
+     * 距上次清扫超过清扫间隔时移除过期的快照和失效标记，同一时刻只有一个线程清扫。
+     * 失效标记只需挡住并发回源写回旧快照，超过 maxAgeMs 后即使写回，也会在 maxAgeMs 内回源。
+     */
+    private void sweep(long now) {
+        long last = lastSweepAt.get();
+        if (now - last < sweepIntervalMs || !lastSweepAt.compareAndSet(last, now)) return;
+        near.values().removeIf(e -> now - e.loadedAt > maxAgeMs);
+    }
+
+    // 近端条目数（含失效标记），供测试观察清扫
+    int nearSize() {
+        return near.size();
+    }
+
+    @Override
+    public String toString() {
+        return "NearCachingSessionStore{" + "delegate=" + delegate + ", near=" + near.size() + '}';
+    }
+
+    private record Entry(QRSession session, long loadedAt, long seq) {
+    }
+}
@@ -1,82 +1,309 @@
-//package top.ysit.qrlogin.core.store;
-//
-//import com.webauthn4j.util.exception.NotImplementedException;
-//import io.lettuce.core.RedisClient;
-//import io.lettuce.core.api.StatefulRedisConnection;
-//import io.lettuce.core.api.sync.RedisCommands;
-//import top.ysit.qrlogin.core.QRSession;
-//import top.ysit.qrlogin.core.QRSessionStatus;
-//import top.ysit.qrlogin.core.SessionStore;
-//import top.ysit.qrlogin.core.util.JsonUtil;
-//
-//public class RedisSessionStore implements SessionStore, AutoCloseable {
-//    private final RedisClient client;
-//    private final StatefulRedisConnection<String, String> conn;
-//    private final String ns;
-//    private final int ttlSeconds;
-//
-//    public RedisSessionStore(String uri, String namespace, int ttlSeconds) {
-//        this.client = RedisClient.create(uri);
-//        this.conn = client.connect();
-//        this.ns = namespace;
-//        this.ttlSeconds = ttlSeconds;
-//    }
-//
-//    private String key(String id) {
-//        return ns + id;
-//    }
-//
-//    @Override
-//    public void put(QRSession s) {
-//        RedisCommands<String, String> cmd = conn.sync();
-//        cmd.setex(key(s.getSessionId()), ttlSeconds, JsonUtil.toJson(s));
-//    }
-//
-//    @Override
-//    public QRSession get(String id) {
-//        String json = conn.sync().get(key(id));
-//        return json == null ? null : JsonUtil.fromJson(json, QRSession.class);
-//    }
-//
-//    @Override
-//    public void setScanned(String id) {
-//        QRSession s = get(id);
-//        if (s == null) return;
-//        s.setStatus(QRSessionStatus.SCANNED);
-//        put(s);
-//    }
-//
-//    @Override
-//    public void setConfirmed(String id, String userId) {
-//        QRSession s = get(id);
-//        if (s == null) return;
-//        s.setStatus(QRSessionStatus.CONFIRMED);
-//        s.setUserId(userId);
-//        put(s);
-//    }
-//
-//    @Override
-//    public void setResponseUrl(String sessionId, String url) {
-//        throw new NotImplementedException("Not Impl");
-//    }
-//
-//
-//    @Override
-//    public void expire(String id) {
-//        QRSession s = get(id);
-//        if (s == null) return;
-//        s.setStatus(QRSessionStatus.EXPIRED);
-//        put(s);
-//    }
-//
-//    @Override
-//    public void delete(String id) {
-//        conn.sync().del(key(id));
-//    }
-//
-//    @Override
-//    public void close() {
-//        conn.close();
-//        client.shutdown();
-//    }
-//}
\ No newline at end of file
+package top.ysit.qrlogin.core.store;
+
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.LettuceFutures;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisCommandTimeoutException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.support.ConnectionPoolSupport;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.core.QRSession;
+import top.ysit.qrlogin.core.QRSessionStatus;
+import top.ysit.qrlogin.core.SessionStatusListener;
+import top.ysit.qrlogin.core.SessionStore;
+import top.ysit.qrlogin.core.notify.RedisStatusNotifier;
+import top.ysit.qrlogin.core.notify.StatusNotifier;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Redis 会话存储：每个会话一个短字段名的 hash，键随 expireAt 过期；
+ * 状态迁移都在服务端 Lua 脚本内原子完成，避免 GET+SETEX 的读改写竞争。
+ */
+public class RedisSessionStore implements SessionStore, AutoCloseable {
+    // hash 字段
+    private static final String F_STATUS = "s";
+    private static final String F_KC_SESSION = "k";
+    private static final String F_CLIENT = "c";
+    private static final String F_TAB = "t";
+    private static final String F_USER = "u";
+    private static final String F_URL = "r";
+    private static final String F_EXPIRE_AT = "e";
+    private static final String F_CREATED_AT = "a";
+    private static final String F_VERSION = "v";
+
+    /**
+     * 条件状态迁移：ARGV[1] 期望的当前状态(空串表示不限)，ARGV[2] 新状态，其余为附带写入的字段/值；成功时递增状态版本
+     */
+    private static final LuaScript TRANSITION_SCRIPT = new LuaScript("""
+            local cur = redis.call('HGET', KEYS[1], 's')
+            if not cur then return 0 end
+            if ARGV[1] ~= '' and cur ~= ARGV[1] then return 0 end
+            redis.call('HSET', KEYS[1], 's', ARGV[2])
+            for i = 3, #ARGV, 2 do redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1]) end
+            redis.call('HINCRBY', KEYS[1], 'v', 1)
+            return 1
+            """);
+
+    /**
+     * 仅在会话存在时写字段，避免在已过期的键上生成没有 TTL 的新 hash
+     */
+    private static final LuaScript SET_FIELD_SCRIPT = new LuaScript("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then return 0 end
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            redis.call('HINCRBY', KEYS[1], 'v', 1)
+            return 1
+            """);
+
+    private final RedisClient client;
+    private final GenericObjectPool<StatefulRedisConnection<String, String>> pool;
+    private final StatusNotifier notifier;
+    private final String ns;
+    private final long commandTimeoutMs;
+
+    public RedisSessionStore(QRLoginConfig cfg) {
+        this(cfg, new RedisStatusNotifier(cfg));
+    }
+
+    public RedisSessionStore(QRLoginConfig cfg, StatusNotifier notifier) {
+        this.notifier = notifier;
+        this.commandTimeoutMs = cfg.getRedisTimeoutMs();
+        RedisURI uri = RedisURI.create(cfg.getRedisUri());
+        uri.setTimeout(Duration.ofMillis(commandTimeoutMs));
+        this.client = RedisClient.create(uri);
+        GenericObjectPoolConfig<StatefulRedisConnection<String, String>> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(cfg.getRedisPoolSize());
+        poolConfig.setMaxIdle(cfg.getRedisPoolSize());
+        poolConfig.setMaxWait(Duration.ofMillis(commandTimeoutMs));
+        this.pool = ConnectionPoolSupport.createGenericObjectPool(client::connect, poolConfig);
+        this.ns = cfg.getRedisNamespace();
+    }
+
+    private String key(String id) {
+        return ns + id;
+    }
+
+    @Override
+    public void put(QRSession s) {
+        Map<String, String> hash = new HashMap<>();
+        hash.put(F_STATUS, encodeStatus(s.status()));
+        hash.put(F_KC_SESSION, s.kcSessionId());
+        hash.put(F_EXPIRE_AT, String.valueOf(s.expireAt()));
+        hash.put(F_CREATED_AT, String.valueOf(s.createdAt()));
+        hash.put(F_VERSION, String.valueOf(s.version()));
+        putIfNotNull(hash, F_CLIENT, s.clientId());
+        putIfNotNull(hash, F_TAB, s.tabId());
+        putIfNotNull(hash, F_USER, s.email());
+        putIfNotNull(hash, F_URL, s.responseUrl());
+
+        String key = key(s.sessionId());
+        // HSET 与 PEXPIREAT 合并为一次往返
+        pipelined(async -> List.of(
+                async.hset(key, hash),
+                async.pexpireat(key, s.expireAt())
+        ));
+    }
+
+    @Override
+    public QRSession get(String id) {
+        Map<String, String> hash = execute(cmd -> cmd.hgetall(key(id)));
+        if (hash == null || hash.isEmpty()) return null;
+        return new QRSession(id, decodeStatus(hash.get(F_STATUS)), hash.get(F_KC_SESSION),
+                hash.get(F_CLIENT), hash.get(F_TAB), hash.get(F_USER), hash.get(F_URL),
+                parseMillis(hash.get(F_CREATED_AT)), parseMillis(hash.get(F_EXPIRE_AT)), parseVersion(hash.get(F_VERSION)));
+    }
+
+    /**
+     * 只取版本、状态、根会话和两个时间字段，不读取回调地址等其余字段
+     */
+    @Override
+    public Stamp stamp(String sessionId, String kcSessionId, long nowMillis) {
+        List<KeyValue<String, String>> values = execute(cmd -> cmd.hmget(key(sessionId),
+                F_VERSION, F_STATUS, F_KC_SESSION, F_EXPIRE_AT, F_CREATED_AT));
+        if (values == null || values.size() < 5 || !values.get(2).hasValue() || !values.get(3).hasValue()) return null;
+        if (!kcSessionId.equals(values.get(2).getValue()) || nowMillis >= parseMillis(values.get(3).getValue())) return null;
+        return new Stamp(parseVersion(values.get(0).getValueOrElse(null)), decodeStatus(values.get(1).getValueOrElse(null)),
+                parseMillis(values.get(4).getValueOrElse(null)));
+    }
+
+    @Override
+    public void setScanned(String id) {
+        if (transition(id, QRSessionStatus.PENDING, QRSessionStatus.SCANNED)) {
+            fireStatusChanged(id, QRSessionStatus.SCANNED);
+        }
+    }
+
+    @Override
+    public void setConfirmed(String id, String userId) {
+        if (transition(id, QRSessionStatus.SCANNED, QRSessionStatus.CONFIRMED, F_USER, userId == null ? "" : userId)) {
+            fireStatusChanged(id, QRSessionStatus.CONFIRMED);
+        }
+    }
+
+    @Override
+    public void setResponseUrl(String sessionId, String url) {
+        execute(cmd -> SET_FIELD_SCRIPT.eval(cmd, key(sessionId), F_URL, url));
+    }
+
+    /**
+     * 回调地址、确认用户和 SCANNED→CONFIRMED 迁移在同一个脚本内原子写入，状态不符时都不写
+     */
+    @Override
+    public void confirm(String sessionId, String userId, String url) {
+        String user = userId == null ? "" : userId;
+        boolean confirmed = url == null
+                ? transition(sessionId, QRSessionStatus.SCANNED, QRSessionStatus.CONFIRMED, F_USER, user)
+                : transition(sessionId, QRSessionStatus.SCANNED, QRSessionStatus.CONFIRMED, F_USER, user, F_URL, url);
+        if (confirmed) {
+            fireStatusChanged(sessionId, QRSessionStatus.CONFIRMED);
+        }
+    }
+
+    @Override
+    public void expire(String id) {
+        if (transition(id, null, QRSessionStatus.EXPIRED)) {
+            fireStatusChanged(id, QRSessionStatus.EXPIRED);
+        }
+    }
+
+    @Override
+    public void delete(String id) {
+        execute(cmd -> cmd.del(key(id)));
+    }
+
+    @Override
+    public void addListener(SessionStatusListener listener) {
+        notifier.subscribe(listener);
+    }
+
+    @Override
+    public void removeListener(SessionStatusListener listener) {
+        notifier.unsubscribe(listener);
+    }
+
+    @Override
+    public void close() {
+        notifier.close();
+        pool.close();
+        client.shutdown();
+    }
+
+    private boolean transition(String id, QRSessionStatus expected, QRSessionStatus target, String... fields) {
+        String[] args = new String[2 + fields.length];
+        args[0] = expected == null ? "" : encodeStatus(expected);
+        args[1] = encodeStatus(target);
+        System.arraycopy(fields, 0, args, 2, fields.length);
+        Long r = execute(cmd -> TRANSITION_SCRIPT.eval(cmd, key(id), args));
+        return r != null && r == 1L;
+    }
+
+    private <T> T execute(Function<RedisCommands<String, String>, T> action) {
+        try (StatefulRedisConnection<String, String> conn = pool.borrowObject()) {
+            return action.apply(conn.sync());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Redis connection unavailable", e);
+        }
+    }
+
+    /**
+     * 在一条借出的连接上关闭自动刷新，批量发送后一次性等待全部响应
+     */
+    private List<RedisFuture<?>> pipelined(Function<RedisAsyncCommands<String, String>, List<RedisFuture<?>>> batch) {
+        try (StatefulRedisConnection<String, String> conn = pool.borrowObject()) {
+            conn.setAutoFlushCommands(false);
+            try {
+                List<RedisFuture<?>> futures = batch.apply(conn.async());
+                conn.flushCommands();
+                if (!LettuceFutures.awaitAll(commandTimeoutMs, TimeUnit.MILLISECONDS, futures.toArray(new RedisFuture[0]))) {
+                    throw new RedisCommandTimeoutException("Pipelined commands timed out after " + commandTimeoutMs + "ms");
+                }
+                return futures;
+            } finally {
+                conn.setAutoFlushCommands(true);
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Redis connection unavailable", e);
+        }
+    }
+
+    private void fireStatusChanged(String id, QRSessionStatus status) {
+        notifier.publish(id, status);
+    }
+
+    private static void putIfNotNull(Map<String, String> hash, String field, String value) {
+        if (value != null) hash.put(field, value);
+    }
+
+    private static String encodeStatus(QRSessionStatus status) {
+        return String.valueOf(status.code());
+    }
+
+    private static QRSessionStatus decodeStatus(String s) {
+        return s == null || s.isEmpty() ? QRSessionStatus.EXPIRED : QRSessionStatus.fromCode(s.charAt(0));
+    }
+
+    // 升级前写入的会话没有版本字段，按 0 处理，脚本的第一次 HINCRBY 把它变为 1
+    private static long parseVersion(String version) {
+        return version == null ? 0L : Long.parseLong(version);
+    }
+
+    private static long parseMillis(String millis) {
+        return millis == null ? 0L : Long.parseLong(millis);
+    }
+
+    /**
+     * Lua 脚本及其 SHA，首次使用时 SCRIPT LOAD，服务端脚本缓存丢失时退回 EVAL
+     */
+    private static final class LuaScript {
+        private final String source;
+        private volatile String sha;
+
+        private LuaScript(String source) {
+            this.source = source;
+        }
+
+        String sha(RedisCommands<String, String> cmd) {
+            String s = sha;
+            if (s == null) {
+                s = cmd.scriptLoad(source);
+                sha = s;
+            }
+            return s;
+        }
+
+        void reset() {
+            sha = null;
+        }
+
+        Long eval(RedisCommands<String, String> cmd, String key, String... args) {
+            try {
+                return cmd.evalsha(sha(cmd), ScriptOutputType.INTEGER, new String[]{key}, args);
+            } catch (RedisNoScriptException e) {
+                reset();
+                return cmd.eval(source, ScriptOutputType.INTEGER, new String[]{key}, args);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RedisSessionStore{" + "namespace=" + ns + ", pool=" + pool.getNumActive() + "/" + pool.getMaxTotal() + '}';
+    }
+}
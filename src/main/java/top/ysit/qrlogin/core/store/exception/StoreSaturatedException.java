@@ -0,0 +1,17 @@
+package top.ysit.qrlogin.core.store.exception;
+
+/**
+ * 会话存储已满且无可淘汰的会话，调用方应稍后重试
+ */
+public class StoreSaturatedException extends RuntimeException {
+    private final int retryAfterSeconds;
+
+    public StoreSaturatedException(String message, int retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
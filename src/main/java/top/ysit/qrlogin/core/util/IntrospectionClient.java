@@ -0,0 +1,99 @@
+package top.ysit.qrlogin.core.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 远程 introspect 客户端。
+ * <p>
+ * 每个端点共用一个 {@link HttpClient}，连接由其内部连接池复用（https 协商 HTTP/2，http 使用 HTTP/1.1 keep-alive）；
+ * 连接和请求均有超时，客户端凭据部分的表单体在构造时编码一次。
+ */
+public class IntrospectionClient {
+    private final HttpClient http;
+    private final URI endpoint;
+    // client_id=...&client_secret=...&token=，每次请求只追加编码后的令牌
+    private final String formPrefix;
+    private final Duration requestTimeout;
+
+    public IntrospectionClient(URI endpoint, String clientId, String clientSecret, Duration connectTimeout, Duration requestTimeout) {
+        this.endpoint = endpoint;
+        this.requestTimeout = requestTimeout;
+        this.formPrefix = "client_id=" + encode(clientId) + "&client_secret=" + encode(clientSecret) + "&token=";
+        this.http = HttpClient.newBuilder()
+                .version("https".equalsIgnoreCase(endpoint.getScheme()) ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    /**
+     * 异步内省，不占用调用线程；网络错误和超时以 error 结果返回而不是异常
+     */
+    public CompletionStage<TokenUtil.TokenValidationResult> introspect(String token) {
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(formPrefix + encode(token)))
+                .build();
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> parse(token, response))
+                .exceptionally(e -> TokenUtil.TokenValidationResult.error("验证异常: " + e.getMessage()));
+    }
+
+    private static TokenUtil.TokenValidationResult parse(String token, HttpResponse<byte[]> response) {
+        if (response.statusCode() != 200) {
+            return TokenUtil.TokenValidationResult.error("introspect 返回 " + response.statusCode());
+        }
+        try {
+            JsonNode json = JsonUtil.readTree(response.body());
+            if (!json.path("active").asBoolean(false)) {
+                return TokenUtil.TokenValidationResult.invalid("Token is not active");
+            }
+            Long exp = json.hasNonNull("exp") ? json.get("exp").asLong() : null;
+            String email = json.hasNonNull("email") ? json.get("email").asText() : emailFromPayload(token);
+            return TokenUtil.TokenValidationResult.valid(text(json, "username"), text(json, "client_id"), email,
+                    text(json, "sub"), TokenUtil.parseScope(text(json, "scope")), exp);
+        } catch (Exception e) {
+            return TokenUtil.TokenValidationResult.error("验证异常: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 内省响应未带 email 时从令牌 payload 中读取，payload 无法解析时返回 null
+     */
+    private static String emailFromPayload(String token) {
+        String[] parts = token.split("\\.");
+        if (parts.length < 2) {
+            return null;
+        }
+        try {
+            return text(JsonUtil.readTree(Base64.getUrlDecoder().decode(parts[1])), "email");
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String text(JsonNode json, String field) {
+        return json.hasNonNull(field) ? json.get(field).asText() : null;
+    }
+
+    private static String encode(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "IntrospectionClient{" + "endpoint=" + endpoint + '}';
+    }
+}
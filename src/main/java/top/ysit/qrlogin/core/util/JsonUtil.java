@@ -1,9 +1,13 @@
 package top.ysit.qrlogin.core.util;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 public class JsonUtil {
     private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader READER = MAPPER.reader();
     public static String toJson(Object o){ try { return MAPPER.writeValueAsString(o);} catch (Exception e){ throw new RuntimeException(e);} }
     public static <T> T fromJson(String s, Class<T> c){ try { return MAPPER.readValue(s,c);} catch (Exception e){ throw new RuntimeException(e);} }
-}
\ No newline at end of file
+    public static JsonNode readTree(byte[] b){ try { return READER.readTree(b);} catch (Exception e){ throw new RuntimeException(e);} }
+}
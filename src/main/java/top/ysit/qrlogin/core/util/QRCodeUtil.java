@@ -1,22 +1,104 @@
 package top.ysit.qrlogin.core.util;
 
 import com.google.zxing.*;
-import com.google.zxing.client.j2se.MatrixToImageWriter;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Base64;
+import java.util.Map;
 
 public class QRCodeUtil {
-    public static String toDataUrl(String text, int size) throws Exception {
-        QRCodeWriter writer = new QRCodeWriter();
-        BitMatrix matrix = writer.encode(text, BarcodeFormat.QR_CODE, size, size);
-        BufferedImage image = MatrixToImageWriter.toBufferedImage(matrix);
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            ImageIO.write(image, "png", baos);
-            return "data:image/png;base64," + Base64.getEncoder().encodeToString(baos.toByteArray());
+    /**
+     * PNG 数据 URL，按整数倍放大到不超过 size 像素（至少每模块 1 像素），由 {@link QRPngEncoder} 直接编码
+     */
+    public static String toDataUrl(String text, int size) throws WriterException {
+        return "data:image/png;base64," + Base64.getEncoder().encodeToString(toPng(text, size));
+    }
+
+    /**
+     * 将 PNG 直接写入输出流，供返回图片本身的接口使用
+     */
+    public static void writePng(String text, int scale, OutputStream out) throws WriterException, IOException {
+        QRPngEncoder.write(encode(text), scale, out);
+    }
+
+    /**
+     * 每个模块一个单位的矩阵（含 4 模块静区），不做放大
+     */
+    public static BitMatrix encode(String text) throws WriterException {
+        return new QRCodeWriter().encode(text, BarcodeFormat.QR_CODE, 0, 0);
+    }
+
+    /**
+     * 矢量 SVG：每行相邻的黑色模块合并为一个矩形，整张图只有一个 path，由浏览器按显示尺寸缩放
+     */
+    public static String toSvg(String text) throws WriterException {
+        BitMatrix matrix = encode(text);
+        int n = matrix.getWidth();
+        StringBuilder svg = new StringBuilder(n * n / 2 + 192);
+        svg.append("<svg xmlns='http://www.w3.org/2000/svg' viewBox='0 0 ").append(n).append(' ').append(n)
+                .append("' shape-rendering='crispEdges'><rect width='100%' height='100%' fill='#fff'/><path d='");
+        for (int y = 0; y < n; y++) {
+            int x = 0;
+            while (x < n) {
+                if (!matrix.get(x, y)) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while (x < n && matrix.get(x, y)) x++;
+                svg.append('M').append(start).append(',').append(y)
+                        .append('h').append(x - start).append("v1h-").append(x - start).append('z');
+            }
+        }
+        return svg.append("'/></svg>").toString();
+    }
+
+    /**
+     * SVG 数据 URL：只转义少数字符，不做 base64，比 base64 少三分之一
+     */
+    public static String toSvgDataUrl(String text) throws WriterException {
+        String svg = toSvg(text);
+        StringBuilder url = new StringBuilder(svg.length() + 64).append("data:image/svg+xml,");
+        for (int i = 0; i < svg.length(); i++) {
+            char c = svg.charAt(i);
+            switch (c) {
+                case '<' -> url.append("%3C");
+                case '>' -> url.append("%3E");
+                case ' ' -> url.append("%20");
+                case '%' -> url.append("%25");
+                case '#' -> url.append("%23");
+                default -> url.append(c);
+            }
+        }
+        return url.toString();
+    }
+
+    /**
+     * PNG 字节，按整数倍放大到不超过 size 像素
+     */
+    public static byte[] toPng(String text, int size) throws WriterException {
+        BitMatrix matrix = encode(text);
+        return QRPngEncoder.encode(matrix, Math.max(1, size / matrix.getWidth()));
+    }
+
+    /**
+     * 原始模块数据，由前端自行绘制：size 为每边模块数（含静区），
+     * data 为按行优先、每字节高位在前打包的位图的 base64
+     */
+    public static Map<String, Object> toModules(String text) throws WriterException {
+        BitMatrix matrix = encode(text);
+        int n = matrix.getWidth();
+        byte[] bits = new byte[(n * n + 7) / 8];
+        for (int y = 0, i = 0; y < n; y++) {
+            for (int x = 0; x < n; x++, i++) {
+                if (matrix.get(x, y)) {
+                    bits[i >>> 3] |= (byte) (0x80 >>> (i & 7));
+                }
+            }
         }
+        return Map.of("size", n, "data", Base64.getEncoder().encodeToString(bits));
     }
-}
\ No newline at end of file
+}
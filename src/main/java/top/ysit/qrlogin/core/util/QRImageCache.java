@@ -0,0 +1,98 @@
+package top.ysit.qrlogin.core.util;
+
+import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.core.QRSession;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 已渲染的二维码图片。二维码内容在会话有效期内不变，每个会话和格式在本节点只渲染一次，会话到期后丢弃。
+ */
+public class QRImageCache {
+    private final ConcurrentMap<String, Image> images = new ConcurrentHashMap<>();
+    private final int maxEntries;
+
+    public QRImageCache(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * @param expireAt 会话到期时间（epoch 毫秒）
+     * @param renderer 未命中时生成图片字节
+     */
+    public Image get(String sessionId, String format, String contentType, long expireAt, Callable<byte[]> renderer) {
+        String key = sessionId + '/' + format;
+        Image cached = images.get(key);
+        long now = System.currentTimeMillis();
+        if (cached != null && cached.expireAt > now) {
+            return cached;
+        }
+        if (images.size() >= maxEntries) {
+            trim(now);
+        }
+        // compute 期间持有该键的桶锁，并发请求同一张图时只渲染一次
+        return images.compute(key, (k, cur) -> {
+            if (cur != null && cur.expireAt > now) return cur;
+            try {
+                byte[] bytes = renderer.call();
+                return new Image(bytes, contentType, etag(bytes), expireAt);
+            } catch (Exception e) {
+                throw new IllegalStateException("QR image rendering failed", e);
+            }
+        });
+    }
+
+    /**
+     * 取出或渲染会话的二维码图片，不依赖 KeycloakSession，可在后台线程调用
+     *
+     * @param format svg 或 png
+     */
+    public Image render(String endpointUrl, String realmName, QRSession s, QRLoginConfig cfg, String kid, String format) {
+        boolean svg = "svg".equals(format);
+        return get(s.sessionId(), svg ? "svg" : "png", svg ? "image/svg+xml" : "image/png", s.expireAt(), () -> {
+            String payload = QRPayloadUtil.payload(endpointUrl, realmName, s, cfg, kid);
+            return svg ? QRCodeUtil.toSvg(payload).getBytes(StandardCharsets.UTF_8) : QRCodeUtil.toPng(payload, 512);
+        });
+    }
+
+    /**
+     * 由图片字节摘要得到强校验器：内容随节点地址、密钥ID或二维码格式变化时 ETag 随之变化
+     */
+    static String etag(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16)) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void trim(long now) {
+        // 先清理已到期的图片，仍然超限时任意淘汰一部分
+        images.values().removeIf(i -> i.expireAt <= now);
+        Iterator<String> it = images.keySet().iterator();
+        while (images.size() >= maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QRImageCache{" + "images=" + images.size() + ", capacity=" + maxEntries + '}';
+    }
+
+    /**
+     * @param etag 强校验器，取自图片字节的 SHA-256 摘要
+     */
+    public record Image(byte[] bytes, String contentType, String etag, long expireAt) {
+    }
+}
@@ -5,29 +5,197 @@ import org.keycloak.models.IdentityProviderStorageProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.config.QRLoginRuntime;
 import top.ysit.qrlogin.core.SessionStore;
+import top.ysit.qrlogin.core.device.DeviceKeyRegistry;
+import top.ysit.qrlogin.core.notify.StatusWaiters;
+import top.ysit.qrlogin.core.replay.InfinispanReplayCache;
+import top.ysit.qrlogin.core.replay.LocalReplayCache;
+import top.ysit.qrlogin.core.replay.RedisReplayCache;
+import top.ysit.qrlogin.core.replay.ReplayCache;
+import top.ysit.qrlogin.core.resilience.PollAdvisor;
 import top.ysit.qrlogin.core.store.InMemorySessionStore;
+import top.ysit.qrlogin.core.store.InfinispanSessionStore;
+import top.ysit.qrlogin.core.store.NearCachingSessionStore;
+import top.ysit.qrlogin.core.store.RedisSessionStore;
 import top.ysit.qrlogin.idp.QRLoginIdentityProviderFactory;
 
+import java.security.SignatureException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class QRLoginStoreUtil {
 
 
-    private static SessionStore sharedStore;
+    private static final int NEAR_CACHE_MAX_ENTRIES = 100_000;
+
+    private static final int IMAGE_CACHE_MAX_ENTRIES = 10_000;
+
+    private static final int STATUS_BODY_MAX_ENTRIES = 10_000;
+
+    // 集群中其他节点收不到本节点的身份提供者事件，快照最多保留这么久后重新读取
+    private static final long RUNTIME_MAX_AGE_MS = 60_000;
+
+    private static volatile SessionStore sharedStore;
+
+    // 当前重放记录及其构建依据，按运行时快照检查配置是否变化
+    private static volatile ReplayHolder sharedReplayCache;
+
+    private static volatile DeviceKeyRegistry sharedDeviceKeys;
+
+    private static final StatusWaiters statusWaiters = new StatusWaiters();
+
+    private static final QRImageCache imageCache = new QRImageCache(IMAGE_CACHE_MAX_ENTRIES);
+
+    private static final StatusBodies statusBodies = new StatusBodies(STATUS_BODY_MAX_ENTRIES);
+
+    private static final PollAdvisor pollAdvisor = new PollAdvisor();
+
+    private static volatile QRPrerenderer prerenderer;
+
+    // realm ID -> 运行时快照
+    private static final ConcurrentMap<String, QRLoginRuntime> runtimes = new ConcurrentHashMap<>();
+
+    // 每次失效递增，代数不一致的快照不再使用
+    private static final AtomicLong runtimeGeneration = new AtomicLong();
 
 
     /**
      * 获取共享的 SessionStore 实例
      */
     public static SessionStore getSharedSessionStore(KeycloakSession session, RealmModel realm) {
-        if (sharedStore == null) {
-            IdentityProviderModel idpModel = getIdentityProviderModel(session);
-            if (idpModel != null) {
-                QRLoginConfig cfg = new QRLoginConfig(idpModel);
-                sharedStore = createStore(cfg);
+        SessionStore store = sharedStore;
+        if (store != null) {
+            return store;
+        }
+        synchronized (QRLoginStoreUtil.class) {
+            // 并发的首个请求只建一个存储，避免多出的 Redis 连接池泄漏
+            if (sharedStore == null) {
+                IdentityProviderModel idpModel = getIdentityProviderModel(session);
+                if (idpModel != null) {
+                    store = createStore(session, new QRLoginConfig(idpModel));
+                    if (store != null) {
+                        store.addListener(statusWaiters);
+                    }
+                    sharedStore = store;
+                }
+            }
+            return sharedStore;
+        }
+    }
 
+    /**
+     * 获取共享的重放记录，与会话存储使用同一类后端。
+     * <p>
+     * 运行时快照重建后比较重放相关配置，变化时（如调大时间窗口）重新构建并关闭旧实例，未变化时保留已有记录；
+     * 未缓存的快照（管理端测试尚未保存的配置）沿用当前实例。
+     */
+    public static ReplayCache getSharedReplayCache(KeycloakSession session, QRLoginRuntime runtime) {
+        ReplayHolder holder = sharedReplayCache;
+        if (holder != null && holder.runtime() == runtime) {
+            return holder.cache();
+        }
+        synchronized (QRLoginStoreUtil.class) {
+            holder = sharedReplayCache;
+            if (holder != null && (holder.runtime() == runtime || runtime.generation() < 0)) {
+                return holder.cache();
+            }
+            ReplaySettings settings = ReplaySettings.of(runtime.config());
+            if (holder != null && holder.settings().equals(settings)) {
+                sharedReplayCache = new ReplayHolder(runtime, settings, holder.cache());
+                return holder.cache();
+            }
+            ReplayCache cache = createReplayCache(session, runtime.config());
+            sharedReplayCache = new ReplayHolder(runtime, settings, cache);
+            if (holder != null && holder.cache() instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception ignored) {
+                    // 旧实例关闭失败不影响新实例
+                }
             }
+            return cache;
+        }
+    }
+
+    /**
+     * 获取共享的设备公钥登记表
+     */
+    public static DeviceKeyRegistry getSharedDeviceKeys(KeycloakSession session) {
+        DeviceKeyRegistry registry = sharedDeviceKeys;
+        if (registry != null) {
+            return registry;
+        }
+        synchronized (QRLoginStoreUtil.class) {
+            if (sharedDeviceKeys == null) {
+                IdentityProviderModel idpModel = getIdentityProviderModel(session);
+                int maxEntries = idpModel == null ? 10000 : new QRLoginConfig(idpModel).getDeviceKeyCacheSize();
+                sharedDeviceKeys = new DeviceKeyRegistry(maxEntries);
+            }
+            return sharedDeviceKeys;
+        }
+    }
+
+    /**
+     * 获取共享的长轮询等待队列，由共享 SessionStore 的状态变更唤醒
+     */
+    public static StatusWaiters getStatusWaiters() {
+        return statusWaiters;
+    }
+
+    /**
+     * 获取共享的二维码图片缓存
+     */
+    public static QRImageCache getImageCache() {
+        return imageCache;
+    }
+
+    /**
+     * 获取共享的 qr/status 响应体缓存
+     */
+    public static StatusBodies getStatusBodies() {
+        return statusBodies;
+    }
+
+    /**
+     * 获取共享的轮询间隔建议，进行中的状态请求数按节点统计
+     */
+    public static PollAdvisor getPollAdvisor() {
+        return pollAdvisor;
+    }
+
+    /**
+     * 获取共享的后台预渲染器，未开启时返回 null；关闭开关或修改队列长度后，旧实例的线程随即停止
+     */
+    public static QRPrerenderer getPrerenderer(QRLoginConfig cfg) {
+        QRPrerenderer current = prerenderer;
+        boolean enabled = cfg.isQrWarmPool();
+        if (enabled ? current != null && current.queueSize() == cfg.getQrWarmPoolMaxSize() : current == null) {
+            return current;
+        }
+        synchronized (QRLoginStoreUtil.class) {
+            current = prerenderer;
+            if (current != null && (!enabled || current.queueSize() != cfg.getQrWarmPoolMaxSize())) {
+                current.close();
+                current = null;
+            }
+            if (enabled && current == null) {
+                current = new QRPrerenderer(cfg.getQrWarmPoolMaxSize());
+            }
+            prerenderer = current;
+            return current;
+        }
+    }
+
+    /**
+     * 停止后台预渲染线程，由身份提供者工厂关闭时调用
+     */
+    public static synchronized void closePrerenderer() {
+        if (prerenderer != null) {
+            prerenderer.close();
+            prerenderer = null;
         }
-        return sharedStore;
     }
 
     public static IdentityProviderModel getIdentityProviderModel(KeycloakSession session) {
@@ -38,17 +206,94 @@ public class QRLoginStoreUtil {
         return new QRLoginConfig(getIdentityProviderModel(session));
     }
 
+    /**
+     * 获取 realm 的运行时快照，首次使用、失效后或超过 {@link #RUNTIME_MAX_AGE_MS} 时重新读取身份提供者配置
+     */
+    public static QRLoginRuntime getRuntime(KeycloakSession session, RealmModel realm) throws SignatureException {
+        long generation = runtimeGeneration.get();
+        QRLoginRuntime runtime = runtimes.get(realm.getId());
+        if (runtime != null && runtime.generation() == generation
+                && System.currentTimeMillis() - runtime.builtAt() < RUNTIME_MAX_AGE_MS) {
+            return runtime;
+        }
+        IdentityProviderModel idpModel = getIdentityProviderModel(session);
+        if (idpModel == null) {
+            throw new IllegalStateException("QR login identity provider is not configured in realm " + realm.getName());
+        }
+        runtime = QRLoginRuntime.build(realm.getName(), idpModel, getSharedSessionStore(session, realm), generation);
+        runtimes.put(realm.getId(), runtime);
+        return runtime;
+    }
+
+    /**
+     * 获取与给定身份提供者模型一致的运行时快照；模型与缓存的快照不是同一个身份提供者或配置不同时
+     * (如管理端测试尚未保存的配置)，按该模型单独构建，不放入缓存
+     */
+    public static QRLoginRuntime getRuntime(KeycloakSession session, RealmModel realm, IdentityProviderModel model)
+            throws SignatureException {
+        QRLoginRuntime runtime = getRuntime(session, realm);
+        if (model == null || runtime.matches(model)) {
+            return runtime;
+        }
+        return QRLoginRuntime.build(realm.getName(), model, getSharedSessionStore(session, realm), -1);
+    }
+
+    /**
+     * 丢弃全部运行时快照；身份提供者配置很少修改，不区分 realm
+     */
+    public static void invalidateRuntimes() {
+        runtimeGeneration.incrementAndGet();
+        runtimes.clear();
+    }
+
 
     /**
      * 根据配置创建 SessionStore 实例
      */
-    public static SessionStore createStore(QRLoginConfig cfg) {
+    public static SessionStore createStore(KeycloakSession session, QRLoginConfig cfg) {
         if ("memory".equalsIgnoreCase(cfg.getStoreType())) {
             return new InMemorySessionStore(cfg);
         }
-//        return new RedisSessionStore(cfg.getRedisUri(), cfg.getRedisNamespace(), cfg.getSessionTtlSeconds());
+        // 远程存储的状态变化通过集群通知到达本节点，状态查询走本地近端缓存
+        if ("redis".equalsIgnoreCase(cfg.getStoreType())) {
+            return new NearCachingSessionStore(new RedisSessionStore(cfg), cfg.getNearCacheMaxAgeMs(), NEAR_CACHE_MAX_ENTRIES);
+        }
+        if ("infinispan".equalsIgnoreCase(cfg.getStoreType())) {
+            return new NearCachingSessionStore(new InfinispanSessionStore(session, cfg), cfg.getNearCacheMaxAgeMs(), NEAR_CACHE_MAX_ENTRIES);
+        }
         return null;
     }
 
+    /**
+     * 根据配置创建 ReplayCache；shared 模式下 redis/infinispan 存储使用对应的集群后端
+     */
+    public static ReplayCache createReplayCache(KeycloakSession session, QRLoginConfig cfg) {
+        if (!cfg.isReplayProtection()) {
+            return (action, signature, timestampSec) -> true;
+        }
+        if ("shared".equalsIgnoreCase(cfg.getReplayCacheType())) {
+            if ("redis".equalsIgnoreCase(cfg.getStoreType())) {
+                return new RedisReplayCache(cfg);
+            }
+            if ("infinispan".equalsIgnoreCase(cfg.getStoreType())) {
+                return new InfinispanReplayCache(session, cfg);
+            }
+        }
+        return new LocalReplayCache(cfg.getTimeWindowSeconds(), cfg.getReplayMaxEntries());
+    }
+
+    private record ReplayHolder(QRLoginRuntime runtime, ReplaySettings settings, ReplayCache cache) {
+    }
 
-}
\ No newline at end of file
+    /**
+     * 决定重放记录后端和行为的配置项
+     */
+    private record ReplaySettings(boolean enabled, String type, String storeType, long windowSeconds, int maxEntries,
+                                  String redisUri, String redisNamespace, long redisTimeoutMs, int infinispanOwners) {
+        static ReplaySettings of(QRLoginConfig cfg) {
+            return new ReplaySettings(cfg.isReplayProtection(), cfg.getReplayCacheType(), cfg.getStoreType(),
+                    cfg.getTimeWindowSeconds(), cfg.getReplayMaxEntries(), cfg.getRedisUri(), cfg.getRedisNamespace(),
+                    cfg.getRedisTimeoutMs(), cfg.getInfinispanOwners());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package top.ysit.qrlogin.core.util;
+
+import org.keycloak.util.JsonSerialization;
+import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.core.QRSession;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 二维码内容。只由会话、配置和请求地址决定，登录页接口和图片接口各自生成的结果一致。
+ * <p>
+ * json 为原有的完整 JSON；compact 只携带会话标识，二维码版本和渲染开销显著降低。
+ */
+public class QRPayloadUtil {
+    public static final int COMPACT_VERSION = 1;
+    private static final String COMPACT_PREFIX = "qrl:" + COMPACT_VERSION + ":";
+
+    /**
+     * 按 qrPayloadFormat 生成二维码内容
+     */
+    public static String payload(String endpointUrl, String realmName, QRSession s, QRLoginConfig cfg, String kid) throws IOException {
+        return "compact".equals(cfg.getQrPayloadFormat()) ? toCompact(realmName, s) : toJson(endpointUrl, s, cfg, kid);
+    }
+
+    /**
+     * 紧凑格式：{@code qrl:1:<realm>:<qr_session>:<kc_session>}。
+     * realm 为 URL 编码的 realm 名；qr_session 为会话 UUID 的 16 字节 base64url（无填充）；
+     * kc_session 原样保留。端点地址、算法、kid、有效期由 App 从 qr/descriptor 获取并缓存。
+     */
+    public static String toCompact(String realmName, QRSession s) {
+        UUID id = UUID.fromString(s.sessionId());
+        ByteBuffer bytes = ByteBuffer.allocate(16).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+        return COMPACT_PREFIX + URLEncoder.encode(realmName, StandardCharsets.UTF_8) + ':'
+                + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.array()) + ':' + s.kcSessionId();
+    }
+
+    /**
+     * App 解析紧凑格式所需的 realm 级描述，内容不随会话变化
+     */
+    public static Map<String, Object> descriptor(String endpointUrl, String realmName, QRLoginConfig cfg, String kid) {
+        Map<String, Object> descriptor = new HashMap<>();
+        descriptor.put("version", COMPACT_VERSION);
+        descriptor.put("realm", realmName);
+        descriptor.put("baseUrl", endpointUrl + "qr/");
+        descriptor.put("algorithm", cfg.getAlgorithm());
+        descriptor.put("kid", kid);
+        descriptor.put("ttl", cfg.getSessionTtlSeconds());
+        return descriptor;
+    }
+
+    public static String toJson(String endpointUrl, QRSession s, QRLoginConfig cfg, String kid) throws IOException {
+        Map<String, Object> qrData = new HashMap<>();
+        qrData.put("type", "qr_login");
+        qrData.put("baseUrl", endpointUrl + "qr/");
+        qrData.put("qr_session", s.sessionId());
+        qrData.put("kc_session", s.kcSessionId());
+        qrData.put("algorithm", cfg.getAlgorithm());
+        qrData.put("kid", kid);
+        qrData.put("token", ""); // 客户端需要填充
+        qrData.put("sign", "");   // 客户端需要填充
+        qrData.put("ttl", cfg.getSessionTtlSeconds());
+        qrData.put("timestamp", "");
+        qrData.put("expiredAt", s.expireAt());
+        return JsonSerialization.writeValueAsPrettyString(qrData);
+    }
+}
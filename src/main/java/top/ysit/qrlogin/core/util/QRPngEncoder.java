@@ -0,0 +1,150 @@
+package top.ysit.qrlogin.core.util;
+
+import com.google.zxing.common.BitMatrix;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 直接由 {@link BitMatrix} 生成 1 位灰度 PNG，不经过 BufferedImage 和 ImageIO。
+ * <p>
+ * 每个模块 scale×scale 像素，黑色模块为 0、白色为 1；行过滤统一为 None，
+ * 重复的像素行由 deflate 以回溯引用压缩。Deflater 和缓冲区按线程复用。
+ */
+public final class QRPngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+    private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+    private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private QRPngEncoder() {
+    }
+
+    public static byte[] encode(BitMatrix matrix, int scale) {
+        State s = STATE.get();
+        s.len = 0;
+        writeTo(matrix, scale, s);
+        return Arrays.copyOf(s.out, s.len);
+    }
+
+    /**
+     * 流式版本，PNG 字节直接写入 out
+     */
+    public static void write(BitMatrix matrix, int scale, OutputStream out) throws IOException {
+        State s = STATE.get();
+        s.len = 0;
+        writeTo(matrix, scale, s);
+        out.write(s.out, 0, s.len);
+    }
+
+    private static void writeTo(BitMatrix matrix, int scale, State s) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("scale must be positive");
+        }
+        int width = matrix.getWidth() * scale;
+        int height = matrix.getHeight() * scale;
+        int rowBytes = 1 + (width + 7) / 8;
+
+        // 原始扫描线：每个模块行生成一次，再整行复制 scale-1 次
+        byte[] raw = s.raw(rowBytes * height);
+        for (int my = 0; my < matrix.getHeight(); my++) {
+            int base = my * scale * rowBytes;
+            raw[base] = 0;
+            Arrays.fill(raw, base + 1, base + rowBytes, (byte) 0xff);
+            for (int mx = 0; mx < matrix.getWidth(); mx++) {
+                if (!matrix.get(mx, my)) continue;
+                for (int px = mx * scale, end = px + scale; px < end; px++) {
+                    raw[base + 1 + (px >>> 3)] &= (byte) ~(0x80 >>> (px & 7));
+                }
+            }
+            for (int r = 1; r < scale; r++) {
+                System.arraycopy(raw, base, raw, base + r * rowBytes, rowBytes);
+            }
+        }
+
+        s.put(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 1;  // 位深
+        header[9] = 0;  // 灰度
+        chunk(s, IHDR, header, 0, header.length);
+
+        Deflater deflater = s.deflater;
+        deflater.reset();
+        deflater.setInput(raw, 0, rowBytes * height);
+        deflater.finish();
+        int start = s.len + 8;
+        s.ensure(8);
+        s.len = start;
+        while (!deflater.finished()) {
+            s.ensure(256);
+            s.len += deflater.deflate(s.out, s.len, s.out.length - s.len);
+        }
+        int dataLen = s.len - start;
+        putInt(s.out, start - 8, dataLen);
+        System.arraycopy(IDAT, 0, s.out, start - 4, 4);
+        s.crc.reset();
+        s.crc.update(s.out, start - 4, dataLen + 4);
+        s.putInt((int) s.crc.getValue());
+
+        chunk(s, IEND, new byte[0], 0, 0);
+    }
+
+    private static void chunk(State s, byte[] type, byte[] data, int off, int len) {
+        s.putInt(len);
+        s.put(type);
+        s.ensure(len);
+        System.arraycopy(data, off, s.out, s.len, len);
+        s.len += len;
+        s.crc.reset();
+        s.crc.update(type);
+        s.crc.update(data, off, len);
+        s.putInt((int) s.crc.getValue());
+    }
+
+    private static void putInt(byte[] b, int pos, int v) {
+        b[pos] = (byte) (v >>> 24);
+        b[pos + 1] = (byte) (v >>> 16);
+        b[pos + 2] = (byte) (v >>> 8);
+        b[pos + 3] = (byte) v;
+    }
+
+    /**
+     * 线程私有的 Deflater、CRC 和输入输出缓冲区
+     */
+    private static final class State {
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private final CRC32 crc = new CRC32();
+        private byte[] raw = new byte[0];
+        private byte[] out = new byte[4096];
+        private int len;
+
+        byte[] raw(int size) {
+            if (raw.length < size) raw = new byte[size];
+            return raw;
+        }
+
+        void put(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, out, len, bytes.length);
+            len += bytes.length;
+        }
+
+        void putInt(int v) {
+            ensure(4);
+            QRPngEncoder.putInt(out, len, v);
+            len += 4;
+        }
+
+        void ensure(int extra) {
+            if (len + extra > out.length) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, len + extra));
+            }
+        }
+    }
+}
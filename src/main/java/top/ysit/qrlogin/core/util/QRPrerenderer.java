@@ -0,0 +1,69 @@
+package top.ysit.qrlogin.core.util;
+
+import top.ysit.qrlogin.core.metrics.QRLoginMetrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 二维码图片后台预渲染。
+ * <p>
+ * 二维码内容包含浏览器的根会话ID，只能在 performLogin 绑定之后生成；绑定后把渲染交给后台线程写入
+ * {@link QRImageCache}，浏览器随后请求 qr/image 时直接命中。队列满时丢弃任务，由 qr/image 按需渲染。
+ * 线程空闲 {@value #KEEP_ALIVE_SECONDS} 秒后退出，由 {@link QRLoginStoreUtil} 在配置变化或工厂关闭时 {@link #close()}。
+ */
+public class QRPrerenderer implements AutoCloseable {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final ThreadPoolExecutor renderer;
+    private final int queueSize;
+
+    public QRPrerenderer(int queueSize) {
+        this.queueSize = Math.max(1, queueSize);
+        this.renderer = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(this.queueSize), r -> {
+                    Thread t = new Thread(r, "qr-prerender");
+                    t.setDaemon(true);
+                    return t;
+                }, (r, executor) -> QRLoginMetrics.prerender("dropped", 0));
+        this.renderer.allowCoreThreadTimeOut(true);
+    }
+
+    public int queueSize() {
+        return queueSize;
+    }
+
+    /**
+     * 在后台线程渲染已绑定会话的二维码
+     */
+    public void prerender(Runnable task) {
+        try {
+            renderer.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                } catch (RuntimeException ignored) {
+                    // 渲染失败时由 qr/image 重新渲染
+                }
+                QRLoginMetrics.prerender("rendered", System.nanoTime() - start);
+            });
+        } catch (RejectedExecutionException ignored) {
+            // 已关闭，由 qr/image 按需渲染
+        }
+    }
+
+    /**
+     * 停止后台线程，丢弃尚未执行的任务
+     */
+    @Override
+    public void close() {
+        renderer.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "QRPrerenderer{" + "queued=" + renderer.getQueue().size() + ", capacity=" + queueSize + '}';
+    }
+}
@@ -0,0 +1,77 @@
+package top.ysit.qrlogin.core.util;
+
+import top.ysit.qrlogin.core.QRSession;
+import top.ysit.qrlogin.core.QRSessionStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * qr/status 的响应体，预先序列化为 JSON 字节，直接写出，不经过 JSON provider。
+ * <p>
+ * 除 CONFIRMED 外的响应体只由状态和轮询间隔建议决定，建议值已取整，组合数量有限，首次用到时序列化；
+ * CONFIRMED 带回调地址，按会话序列化一次后缓存到会话过期。
+ */
+public class StatusBodies {
+    // 键为 next_poll_ms * 状态数 + 状态序号
+    private static final ConcurrentMap<Long, byte[]> FIXED = new ConcurrentHashMap<>();
+    private static final int STATUS_COUNT = QRSessionStatus.values().length;
+
+    private final ConcurrentMap<String, Confirmed> confirmed = new ConcurrentHashMap<>();
+    private final int maxEntries;
+
+    public StatusBodies(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * @param nextPollMs 下次轮询间隔建议，终态为 0
+     */
+    public byte[] body(QRSession qrs, long nextPollMs) {
+        if (qrs.status() != QRSessionStatus.CONFIRMED) {
+            QRSessionStatus status = qrs.status();
+            return FIXED.computeIfAbsent(nextPollMs * STATUS_COUNT + status.ordinal(), k -> serialize(status, "", nextPollMs));
+        }
+        Confirmed cached = confirmed.get(qrs.sessionId());
+        if (cached != null && cached.url.equals(qrs.responseUrl())) {
+            return cached.body;
+        }
+        if (confirmed.size() >= maxEntries) {
+            trim(System.currentTimeMillis());
+        }
+        String url = qrs.responseUrl() == null ? "" : qrs.responseUrl();
+        Confirmed entry = new Confirmed(url, serialize(QRSessionStatus.CONFIRMED, url, 0), qrs.expireAt());
+        confirmed.put(qrs.sessionId(), entry);
+        return entry.body;
+    }
+
+    private void trim(long now) {
+        // 先清理已过期的会话，仍然超限时任意淘汰一部分
+        confirmed.values().removeIf(c -> c.expireAt <= now);
+        Iterator<String> it = confirmed.keySet().iterator();
+        while (confirmed.size() >= maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static byte[] serialize(QRSessionStatus status, String url, long nextPollMs) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", status);
+        body.put("url", url);
+        body.put("next_poll_ms", nextPollMs);
+        return JsonUtil.toJson(body).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "StatusBodies{" + "confirmed=" + confirmed.size() + ", capacity=" + maxEntries + '}';
+    }
+
+    private record Confirmed(String url, byte[] body, long expireAt) {
+    }
+}
@@ -1,135 +1,244 @@
 package top.ysit.qrlogin.core.util;
 
 import jakarta.annotation.Nonnull;
-import jakarta.json.Json;
-import jakarta.json.JsonObject;
-
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import org.keycloak.TokenVerifier;
+import org.keycloak.common.VerificationException;
+import org.keycloak.crypto.SignatureProvider;
+import org.keycloak.crypto.SignatureVerifierContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.services.Urls;
+import org.keycloak.services.managers.AuthenticationManager;
+import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.config.QRLoginRuntime;
+import top.ysit.qrlogin.core.metrics.QRLoginMetrics;
+import top.ysit.qrlogin.core.resilience.Bulkhead;
+import top.ysit.qrlogin.core.resilience.CircuitBreaker;
+import top.ysit.qrlogin.core.resilience.exception.CallRejectedException;
+
+import java.net.URI;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class TokenUtil {
-    public static TokenValidationResult verifyToken(String token, @Nonnull IntrospectConfig config) {
-        if (token == null || token.isEmpty()) {
-            return TokenValidationResult.invalid("token 为空或无效");
-        }
-        if (config.baseUrl == null || config.realm == null || config.clientId == null || config.clientSecret == null) {
-            return TokenValidationResult.invalid("配置错误");
-        }
-
-        try {
-            // 构造 introspect URL
-            String urlString = config.baseUrl + "/realms/" + config.realm + "/protocol/openid-connect/token/introspect";
-            URL url = new URL(urlString);
-
-            // 设置请求
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-            conn.setDoOutput(true);
-
-            String body = String.format("client_id=%s&client_secret=%s&token=%s", config.clientId, config.clientSecret, token);
-
-            try (OutputStream os = conn.getOutputStream()) {
-                os.write(body.getBytes(StandardCharsets.UTF_8));
-            }
+    private static final int CACHE_MAX_ENTRIES = 10_000;
+    private static final String GUARD_NAME = "token-verification";
+
+    // 一次登录中同一令牌会在扫码、确认、回调各校验一次，结果在进程内共享
+    private static final TokenVerificationCache cache = new TokenVerificationCache(CACHE_MAX_ENTRIES);
+
+    // 当前运行时代数下的舱壁、熔断器和内省客户端；代数变化时整体替换，旧的客户端和指标随之释放
+    private static volatile Resources resources = new Resources(-1, null, null, new ConcurrentHashMap<>());
+
+    /**
+     * 按配置选择校验方式：local 在当前 KeycloakSession 内校验，introspection 走 HTTP 内省接口；
+     * 结果经 {@link TokenVerificationCache} 缓存，未命中时的实际校验受舱壁和熔断器保护
+     *
+     * @throws CallRejectedException 并发已满、熔断器打开或等待同一令牌的校验超时，未得到校验结果
+     */
+    public static TokenValidationResult verifyToken(String token, KeycloakSession session, QRLoginRuntime runtime) {
+        QRLoginConfig cfg = runtime.config();
+        Guard guard = resources(runtime).guard();
+        return cache.verify(cacheScope(session, cfg), token, cfg.getTokenCacheTtlSeconds() * 1000L, cfg.getTokenCacheNegativeTtlSeconds() * 1000L,
+                cfg.getVerifyMaxWaitMs(), () -> guard.bulkhead().call(() -> guard.breaker().call(() -> verifyUncached(token, session, cfg),
+                        TokenValidationResult::retryable)));
+    }
 
+    /**
+     * 校验结果的适用范围：realm、请求根地址(决定签发者)、App 客户端和校验方式，introspection 另含端点和客户端
+     */
+    private static String cacheScope(KeycloakSession session, QRLoginConfig cfg) {
+        String scope = session.getContext().getRealm().getId() + '|' + session.getContext().getUri().getBaseUri()
+                + '|' + cfg.getAppClientId();
+        if ("introspection".equalsIgnoreCase(cfg.getTokenVerification())) {
+            return scope + "|introspection|" + cfg.getIntrospectionUrl() + '|' + cfg.getClientId();
+        }
+        return scope + "|local";
+    }
 
-            JsonObject json = Json.createReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8)).readObject();
-            boolean active = json.getBoolean("active", false);
-            if (!active) {
-                return TokenValidationResult.invalid("Token is not active");
+    /**
+     * 取当前代数的资源；配置重建后舱壁和熔断器参数不变则沿用原实例，保留熔断状态
+     */
+    private static Resources resources(QRLoginRuntime runtime) {
+        Resources current = resources;
+        if (current.guard() != null && (current.generation() == runtime.generation() || runtime.generation() < 0)) {
+            return current;
+        }
+        synchronized (TokenUtil.class) {
+            current = resources;
+            if (current.guard() != null && (current.generation() == runtime.generation() || runtime.generation() < 0)) {
+                return current;
             }
-
-            // 安全提取 exp 字段
-            Long exp = null;
-            if (json.containsKey("exp") && !json.isNull("exp")) {
-                exp = json.getJsonNumber("exp").longValue();
+            QRLoginConfig cfg = runtime.config();
+            GuardKey key = new GuardKey(cfg.getVerifyMaxConcurrent(), cfg.getVerifyMaxWaitMs(),
+                    cfg.getBreakerFailureThreshold(), cfg.getBreakerOpenSeconds());
+            Guard guard = current.guard();
+            if (guard == null || !key.equals(current.guardKey())) {
+                guard = new Guard(new Bulkhead(GUARD_NAME, key.maxConcurrent(), key.maxWaitMs()),
+                        new CircuitBreaker(GUARD_NAME, key.failureThreshold(), key.openSeconds() * 1000L));
+                QRLoginMetrics.bindResilience(GUARD_NAME, guard.bulkhead(), guard.breaker());
             }
-
-            // 提取其他信息
-            String username = json.getString("username", null);
-            String clientId = json.getString("client_id", null);
-            List<String> scope = parseScope(json.getString("scope", null));
-
-
-//            解析token内容，获取email
-            JsonObject payload = tokenToJson(token);
-            String email = payload.getString("email", null);
-            String sub = json.getString("sub", null);
-            return TokenValidationResult.valid(username, clientId, email, sub, scope, exp);
-
-        } catch (Exception e) {
-            return TokenValidationResult.error("验证异常: " + e.getMessage());
+            Resources next = new Resources(runtime.generation(), key, guard, new ConcurrentHashMap<>());
+            resources = next;
+            return next;
         }
     }
 
-    private static List<String> parseScope(String scope) {
-        if (scope == null || scope.trim().isEmpty()) {
-            return Collections.emptyList();
+    private static TokenValidationResult verifyUncached(String token, KeycloakSession session, QRLoginConfig cfg) {
+        String appClientId = cfg.getAppClientId();
+        if (appClientId == null || appClientId.isBlank()) {
+            return TokenValidationResult.invalid("未配置 App 客户端ID");
         }
-        return Arrays.asList(scope.split(" "));
+        if ("introspection".equalsIgnoreCase(cfg.getTokenVerification())) {
+            String baseUrl = session.getContext().getUri().getBaseUri().toString();
+            String realm = session.getContext().getRealm().getName();
+            IntrospectConfig config = new IntrospectConfig(baseUrl, realm, cfg.getClientId(), cfg.getSecret());
+            config.setIntrospectionUrl(cfg.getIntrospectionUrl());
+            config.setConnectTimeoutMs(cfg.getIntrospectionConnectTimeoutMs());
+            config.setTimeoutMs(cfg.getIntrospectionTimeoutMs());
+            TokenValidationResult result = verifyToken(token, config);
+            if (result.valid() && !appClientId.equals(result.clientId())) {
+                return TokenValidationResult.invalid("Token is not issued for the app client");
+            }
+            return result;
+        }
+        return verifyTokenLocally(token, session, appClientId);
     }
 
-    public static JsonObject tokenToJson(String token) {
+    /**
+     * 进程内校验：用 realm 当前密钥验签并检查过期、签发者和令牌类型，要求令牌签发给 App 客户端(azp 或 aud)，
+     * 再确认用户会话仍然有效、用户未被禁用，与 introspect 端点的 active 判定一致，但不发起 HTTP 回环请求。
+     *
+     * @param appClientId App 使用的客户端ID，ID 令牌、刷新令牌或签发给其他客户端的访问令牌均不接受
+     */
+    public static TokenValidationResult verifyTokenLocally(String token, @Nonnull KeycloakSession session,
+                                                           @Nonnull String appClientId) {
         if (token == null || token.isEmpty()) {
-            return null;
+            return TokenValidationResult.invalid("token 为空或无效");
         }
+        RealmModel realm = session.getContext().getRealm();
         try {
-            // JWT token 由三部分组成，用点分隔：header.payload.signature
-            String[] parts = token.split("\\.");
-            if (parts.length < 2) {
-                return null;
+            TokenVerifier<AccessToken> verifier = TokenVerifier.create(token, AccessToken.class)
+                    .withDefaultChecks()
+                    .tokenType(List.of(org.keycloak.util.TokenUtil.TOKEN_TYPE_BEARER))
+                    .withChecks(new TokenVerifier.RealmUrlCheck(Urls.realmIssuer(session.getContext().getUri().getBaseUri(), realm.getName())));
+            SignatureProvider signatureProvider = session.getProvider(SignatureProvider.class, verifier.getHeader().getAlgorithm().name());
+            if (signatureProvider == null) {
+                return TokenValidationResult.invalid("不支持的签名算法");
             }
-
-            // 解码 payload 部分（第二部分）
-            String payload = parts[1];
-            // 补充可能缺失的填充字符
-            switch (payload.length() % 4) {
-                case 2:
-                    payload += "==";
-                    break;
-                case 3:
-                    payload += "=";
-                    break;
+            SignatureVerifierContext verifierContext = signatureProvider.verifier(verifier.getHeader().getKeyId());
+            AccessToken at = verifier.verifierContext(verifierContext).verify().getToken();
+            if (!appClientId.equals(at.getIssuedFor()) && !at.hasAudience(appClientId)) {
+                return TokenValidationResult.invalid("Token is not issued for the app client");
             }
 
-            // Base64 解码
-            // 使用URL安全的Base64解码器
-            byte[] decodedBytes = java.util.Base64.getUrlDecoder().decode(payload);
-            String decodedString = new String(decodedBytes, StandardCharsets.UTF_8);
+            UserSessionModel userSession = findValidUserSession(session, realm, at.getSessionId());
+            if (userSession == null) {
+                return TokenValidationResult.invalid("User session is not active");
+            }
+            UserModel user = userSession.getUser();
+            if (user == null || !user.isEnabled() || !user.getId().equals(at.getSubject())) {
+                return TokenValidationResult.invalid("User is not active");
+            }
+            return TokenValidationResult.valid(user.getUsername(), at.getIssuedFor(), at.getEmail(), at.getSubject(),
+                    parseScope(at.getScope()), at.getExp());
+        } catch (VerificationException e) {
+            return TokenValidationResult.invalid("Token is not active: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // 会话或密钥查询失败不代表令牌无效，返回可重试的错误
+            return TokenValidationResult.error("验证异常: " + e.getMessage());
+        }
+    }
 
-            // 解析为 JsonObject
-            return Json.createReader(new java.io.StringReader(decodedString)).readObject();
+    private static UserSessionModel findValidUserSession(KeycloakSession session, RealmModel realm, String sessionId) {
+        if (sessionId == null) {
+            return null;
+        }
+        UserSessionModel userSession = session.sessions().getUserSession(realm, sessionId);
+        if (userSession != null) {
+            return AuthenticationManager.isSessionValid(realm, userSession) ? userSession : null;
+        }
+        // 离线令牌对应离线会话
+        userSession = session.sessions().getOfflineUserSession(realm, sessionId);
+        return userSession != null && AuthenticationManager.isSessionValid(realm, userSession) ? userSession : null;
+    }
 
+    public static TokenValidationResult verifyToken(String token, @Nonnull IntrospectConfig config) {
+        try {
+            // 调用方是同步的 JAX-RS 线程，这里等待异步结果；请求本身已有超时，不会无限阻塞
+            return introspect(token, config).toCompletableFuture().join();
         } catch (Exception e) {
-            // 解析失败时返回 null
-            return null;
+            return TokenValidationResult.error("验证异常: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 异步 introspect，同一端点和凭据复用同一个连接池
+     */
+    public static CompletionStage<TokenValidationResult> introspect(String token, @Nonnull IntrospectConfig config) {
+        if (token == null || token.isEmpty()) {
+            return CompletableFuture.completedFuture(TokenValidationResult.invalid("token 为空或无效"));
+        }
+        String url = config.getIntrospectionUrl();
+        if (url == null || config.clientId == null || config.clientSecret == null) {
+            return CompletableFuture.completedFuture(TokenValidationResult.invalid("配置错误"));
         }
+        ClientKey key = new ClientKey(url, config.clientId, config.clientSecret, config.connectTimeoutMs, config.timeoutMs);
+        IntrospectionClient client = resources.clients().computeIfAbsent(key, k -> new IntrospectionClient(URI.create(k.url()), k.clientId(),
+                k.clientSecret(), Duration.ofMillis(k.connectTimeoutMs()), Duration.ofMillis(k.timeoutMs())));
+        return client.introspect(token);
     }
 
+    static List<String> parseScope(String scope) {
+        if (scope == null || scope.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(scope.split(" "));
+    }
+
+    /**
+     * @param retryable 校验本身失败（网络错误、超时等）而非令牌无效，稍后重试可能成功
+     */
     public record TokenValidationResult(boolean valid, String error, String username, String clientId, String email,
-                                        String sub, List<String> scope, Long expiration) {
+                                        String sub, List<String> scope, Long expiration, boolean retryable) {
 
 
         public static TokenValidationResult valid(String username, String clientId, String email, String sub, List<String> scope, Long expiration) {
-            return new TokenValidationResult(true, null, username, clientId, email, sub, scope, expiration);
+            return new TokenValidationResult(true, null, username, clientId, email, sub, scope, expiration, false);
         }
 
         public static TokenValidationResult invalid(String error) {
-            return new TokenValidationResult(false, error, null, null, null, null, null, null);
+            return new TokenValidationResult(false, error, null, null, null, null, null, null, false);
         }
 
         public static TokenValidationResult error(String error) {
-            return new TokenValidationResult(false, error, null, null, null, null, null, null);
+            return new TokenValidationResult(false, error, null, null, null, null, null, null, true);
         }
     }
 
+    private record ClientKey(String url, String clientId, String clientSecret, long connectTimeoutMs, long timeoutMs) {
+    }
+
+    private record GuardKey(int maxConcurrent, long maxWaitMs, int failureThreshold, int openSeconds) {
+    }
+
+    private record Guard(Bulkhead bulkhead, CircuitBreaker breaker) {
+    }
+
+    private record Resources(long generation, GuardKey guardKey, Guard guard, ConcurrentMap<ClientKey, IntrospectionClient> clients) {
+    }
+
     public static class IntrospectConfig {
 
 
@@ -137,6 +246,10 @@ public class TokenUtil {
         private String realm;
         private String clientId;
         private String clientSecret;
+        // 显式指定的 introspect 地址，为空时使用 baseUrl 下当前 realm 的端点
+        private String introspectionUrl;
+        private long connectTimeoutMs = 2000;
+        private long timeoutMs = 3000;
 
         public IntrospectConfig(String baseUrl, String realm, String clientId, String clientSecret) {
             this.baseUrl = baseUrl;
@@ -179,5 +292,37 @@ public class TokenUtil {
         public void setClientSecret(String clientSecret) {
             this.clientSecret = clientSecret;
         }
+
+        public String getIntrospectionUrl() {
+            if (introspectionUrl != null && !introspectionUrl.isBlank()) {
+                return introspectionUrl;
+            }
+            if (baseUrl == null || realm == null) {
+                return null;
+            }
+            String base = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+            return base + "realms/" + URLEncoder.encode(realm, StandardCharsets.UTF_8).replace("+", "%20")
+                    + "/protocol/openid-connect/token/introspect";
+        }
+
+        public void setIntrospectionUrl(String introspectionUrl) {
+            this.introspectionUrl = introspectionUrl;
+        }
+
+        public long getConnectTimeoutMs() {
+            return connectTimeoutMs;
+        }
+
+        public void setConnectTimeoutMs(long connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+        }
+
+        public long getTimeoutMs() {
+            return timeoutMs;
+        }
+
+        public void setTimeoutMs(long timeoutMs) {
+            this.timeoutMs = timeoutMs;
+        }
     }
 }
@@ -0,0 +1,139 @@
+package top.ysit.qrlogin.core.util;
+
+import top.ysit.qrlogin.core.metrics.QRLoginMetrics;
+import top.ysit.qrlogin.core.resilience.exception.CallRejectedException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 令牌校验结果缓存。
+ * <p>
+ * 以校验范围加令牌的 SHA-256 作为键，不在内存中保留令牌原文；范围区分 realm、校验方式和内省端点，
+ * 一个 realm 接受的令牌不会因缓存而在另一个 realm 或另一套配置下被接受。
+ * 有效结果最长缓存到令牌 exp 或 maxTtl，无效结果只短暂缓存。同一令牌的并发校验合并为一次，其余调用等待同一个结果，
+ * 等待超过 maxWaitMs 时按被拒绝处理，不无限占用请求线程。
+ */
+public class TokenVerificationCache {
+    // 等待合并校验超时的建议重试间隔
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<TokenUtil.TokenValidationResult>> inflight = new ConcurrentHashMap<>();
+    private final int maxEntries;
+
+    public TokenVerificationCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param scope         校验范围，相同令牌在不同范围下分别校验和缓存
+     * @param maxTtlMs      有效结果的缓存上限，为 0 时不缓存
+     * @param negativeTtlMs 无效结果的缓存时间，为 0 时不缓存
+     * @param maxWaitMs     等待同一令牌进行中校验的最长时间
+     * @param loader        实际校验逻辑
+     * @throws CallRejectedException 等待进行中的校验超时
+     */
+    public TokenUtil.TokenValidationResult verify(String scope, String token, long maxTtlMs, long negativeTtlMs,
+                                                  long maxWaitMs, Supplier<TokenUtil.TokenValidationResult> loader) {
+        if (token == null || token.isEmpty()) {
+            return loader.get();
+        }
+        String key = scope + '\n' + hash(token);
+        TokenUtil.TokenValidationResult cached = lookup(key);
+        if (cached != null) {
+            QRLoginMetrics.tokenCache("hit");
+            return cached;
+        }
+
+        CompletableFuture<TokenUtil.TokenValidationResult> mine = new CompletableFuture<>();
+        CompletableFuture<TokenUtil.TokenValidationResult> running = inflight.putIfAbsent(key, mine);
+        if (running != null) {
+            QRLoginMetrics.tokenCache("coalesced");
+            // 各自限时等待，不用 orTimeout：超时会让共享的 future 对所有等待者失败
+            try {
+                return running.get(maxWaitMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                QRLoginMetrics.tokenCache("wait_timeout");
+                throw new CallRejectedException("Token verification in progress", RETRY_AFTER_SECONDS);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CallRejectedException("Token verification interrupted", RETRY_AFTER_SECONDS);
+            }
+        }
+        try {
+            // 抢到执行权之前上一轮可能刚好写入了结果
+            TokenUtil.TokenValidationResult result = lookup(key);
+            if (result == null) {
+                QRLoginMetrics.tokenCache("miss");
+                result = loader.get();
+                long now = System.currentTimeMillis();
+                // 可重试的错误不缓存，下一次调用重新校验
+                long ttl = result.valid() ? positiveTtl(result, now, maxTtlMs) : result.retryable() ? 0 : negativeTtlMs;
+                if (ttl > 0) {
+                    store(key, new Entry(result, now + ttl), now);
+                }
+            } else {
+                QRLoginMetrics.tokenCache("hit");
+            }
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, mine);
+        }
+    }
+
+    private TokenUtil.TokenValidationResult lookup(String key) {
+        Entry e = entries.get(key);
+        if (e == null) return null;
+        if (e.expiresAt > System.currentTimeMillis()) return e.result;
+        entries.remove(key, e);
+        return null;
+    }
+
+    private void store(String key, Entry entry, long now) {
+        if (entries.size() >= maxEntries) {
+            // 先清理已过期的条目，仍然超限时任意淘汰一部分
+            entries.values().removeIf(e -> e.expiresAt <= now);
+            Iterator<String> it = entries.keySet().iterator();
+            while (entries.size() >= maxEntries && it.hasNext()) {
+                it.next();
+                it.remove();
+                QRLoginMetrics.tokenCacheEvicted();
+            }
+        }
+        entries.put(key, entry);
+    }
+
+    private static long positiveTtl(TokenUtil.TokenValidationResult result, long now, long maxTtlMs) {
+        if (result.expiration() == null) return maxTtlMs;
+        return Math.min(maxTtlMs, result.expiration() * 1000 - now);
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Entry(TokenUtil.TokenValidationResult result, long expiresAt) {
+    }
+}
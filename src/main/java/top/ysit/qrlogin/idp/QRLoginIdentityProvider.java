@@ -8,49 +8,63 @@ import org.keycloak.broker.provider.AuthenticationRequest;
 import org.keycloak.broker.provider.BrokeredIdentityContext;
 import org.keycloak.broker.provider.IdentityProvider;
 import org.keycloak.events.EventBuilder;
+import org.keycloak.models.ClientModel;
 import org.keycloak.models.FederatedIdentityModel;
 import org.keycloak.models.IdentityProviderModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
 import org.keycloak.services.managers.AuthenticationSessionManager;
 import org.keycloak.sessions.AuthenticationSessionModel;
 import org.keycloak.sessions.RootAuthenticationSessionModel;
-import org.keycloak.util.JsonSerialization;
 import org.keycloak.utils.MediaType;
 import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.config.QRLoginRuntime;
 import top.ysit.qrlogin.core.QRSession;
 import top.ysit.qrlogin.core.QRSessionStatus;
 import top.ysit.qrlogin.core.SessionStore;
-import top.ysit.qrlogin.core.security.SignatureConfig;
+import top.ysit.qrlogin.core.device.DeviceKeyRegistry;
+import top.ysit.qrlogin.core.replay.ReplayCache;
+import top.ysit.qrlogin.core.resilience.exception.CallRejectedException;
 import top.ysit.qrlogin.core.security.SignatureUtil;
+import top.ysit.qrlogin.core.store.exception.StoreSaturatedException;
 import top.ysit.qrlogin.core.util.QRCodeUtil;
+import top.ysit.qrlogin.core.util.QRImageCache;
+import top.ysit.qrlogin.core.util.QRPayloadUtil;
+import top.ysit.qrlogin.core.util.QRPrerenderer;
 import top.ysit.qrlogin.core.util.TokenUtil;
-import top.ysit.qrlogin.idp.resource.factory.QRLoginEndpointProviderFactory;
 
 import java.security.SignatureException;
-import java.time.Instant;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 public class QRLoginIdentityProvider extends AbstractIdentityProvider<IdentityProviderModel> implements IdentityProvider<IdentityProviderModel> {
+    private final QRLoginRuntime runtime;
     private final QRLoginConfig cfg;
     private final SessionStore store;
 
     private final SignatureUtil signatureUtil;
-
-    public QRLoginIdentityProvider(KeycloakSession session, QRLoginConfig cfg, SessionStore store) {
-
-        super(session, cfg);
-
-        this.cfg = cfg;
-        this.store = store;
-        SignatureConfig signatureConfig = new SignatureConfig(cfg.getHmacSecret(), cfg.getAlgorithm(), cfg.getTimeWindowSeconds());
-        try {
-            this.signatureUtil = new SignatureUtil(signatureConfig);
-        } catch (SignatureException e) {
-            throw new RuntimeException(e);
-        }
+    private final ReplayCache replayCache;
+    private final DeviceKeyRegistry deviceKeys;
+    private final QRImageCache imageCache;
+    // 未开启后台预渲染时为 null
+    private final QRPrerenderer prerenderer;
+
+    public QRLoginIdentityProvider(KeycloakSession session, QRLoginRuntime runtime, ReplayCache replayCache,
+                                   DeviceKeyRegistry deviceKeys, QRImageCache imageCache, QRPrerenderer prerenderer) {
+
+        super(session, runtime.config());
+
+        this.runtime = runtime;
+        this.cfg = runtime.config();
+        this.store = runtime.store();
+        this.signatureUtil = runtime.signer();
+        this.replayCache = replayCache;
+        this.deviceKeys = deviceKeys;
+        this.imageCache = imageCache;
+        this.prerenderer = prerenderer;
     }
 
     @Override
@@ -66,44 +80,61 @@ public class QRLoginIdentityProvider extends AbstractIdentityProvider<IdentityPr
         AuthenticationSessionModel authSession = request.getAuthenticationSession();
 
         String sessionId = UUID.randomUUID().toString();
-        QRSession s = new QRSession();
-        s.setSessionId(sessionId);
-        s.setStatus(QRSessionStatus.PENDING);
-        s.setExpireAt(Instant.now().plusSeconds(cfg.getSessionTtlSeconds()));
-        s.setCreatedAt(Instant.now());
-        s.setKcSessionId(authSession.getParentSession().getId());
-        s.setAuthSession(authSession);
-
-        store.put(s);
+        long now = System.currentTimeMillis();
+        // 只保存定位认证会话所需的ID，不持有 AuthenticationSessionModel 本身
+        QRSession s = QRSession.pending(sessionId, authSession.getParentSession().getId(),
+                authSession.getClient().getId(), authSession.getTabId(),
+                now, now + cfg.getSessionTtlSeconds() * 1000L);
 
+        try {
+            store.put(s);
+        } catch (StoreSaturatedException e) {
+            // 已扫码和已确认的会话不会被挤出，新请求快速失败并提示稍后重试
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", e.getRetryAfterSeconds())
+                    .entity(Map.of("error", "busy", "retryAfter", e.getRetryAfterSeconds()))
+                    .type(MediaType.APPLICATION_JSON).build();
+        }
 
-        String baseUrl = session.getContext().getUri().getBaseUri().toString();
 
 //        构造请求地址
-        String checkUrl = baseUrl + "realms/" + request.getRealm().getName() + "/" + QRLoginEndpointProviderFactory.ID + "/" + "qr/status" + "?qr_session=" + s.getSessionId() + "&kc_session=" + authSession.getParentSession().getId();
-        // 构造二维码中的JSON数据
-        Map<String, Object> qrData = new HashMap<>();
-        qrData.put("type", "qr_login");
-        qrData.put("baseUrl", baseUrl + "realms/" + request.getRealm().getName() + "/" + QRLoginEndpointProviderFactory.ID + "/" + "qr/");
-        qrData.put("qr_session", s.getSessionId());
-        qrData.put("kc_session", authSession.getParentSession().getId());
-        qrData.put("algorithm", cfg.getAlgorithm());
-        qrData.put("token", ""); // 客户端需要填充
-        qrData.put("sign", "");   // 客户端需要填充
-        qrData.put("ttl", cfg.getSessionTtlSeconds());
-        qrData.put("timestamp", "");
-        qrData.put("expiredAt", s.getExpireAt().toEpochMilli());
-
-
-        String qrJsonData;
+        QRLoginRuntime.Urls urls = runtime.urls(session);
+        String endpointUrl = urls.endpoint();
+        String sessionQuery = "?qr_session=" + s.sessionId() + "&kc_session=" + authSession.getParentSession().getId();
+        String checkUrl = urls.status() + sessionQuery;
+        String waitUrl = urls.statusWait() + sessionQuery;
+        String eventsUrl = urls.events() + sessionQuery;
+
         try {
-            qrJsonData = JsonSerialization.writeValueAsPrettyString(qrData);
-            String imageData = QRCodeUtil.toDataUrl(qrJsonData, 512);
+            // png 为兼容旧主题的默认值；svg 和 modules 的响应体更小
+            String format = cfg.getQrImageFormat();
+            String imageField;
+            Object imageData;
+            if ("modules".equals(format)) {
+                imageField = "qr_modules";
+                imageData = QRCodeUtil.toModules(QRPayloadUtil.payload(endpointUrl, request.getRealm().getName(), s, cfg, signatureUtil.getActiveKid()));
+            } else if (cfg.isQrImageInline()) {
+                String qrJsonData = QRPayloadUtil.payload(endpointUrl, request.getRealm().getName(), s, cfg, signatureUtil.getActiveKid());
+                imageField = "qr_image_data";
+                imageData = "svg".equals(format) ? QRCodeUtil.toSvgDataUrl(qrJsonData) : QRCodeUtil.toDataUrl(qrJsonData, 512);
+            } else {
+                // 图片由 qr/image 按需渲染，响应只带地址
+                imageField = "qr_image_url";
+                imageData = urls.image() + sessionQuery;
+                if (prerenderer != null) {
+                    // 浏览器拿到地址再请求图片之前，后台线程通常已渲染完成
+                    String realmName = request.getRealm().getName();
+                    String kid = signatureUtil.getActiveKid();
+                    prerenderer.prerender(() -> imageCache.render(endpointUrl, realmName, s, cfg, kid, format));
+                }
+            }
 
-            return Response.ok(Map.of("qr_session", s.getSessionId(),
+            return Response.ok(Map.of("qr_session", s.sessionId(),
                             "kc_session", authSession.getParentSession().getId(),
-                            "qr_image_data", imageData,
+                            imageField, imageData,
                             "statusUrl", checkUrl,
+                            "waitUrl", waitUrl,
+                            "eventsUrl", eventsUrl,
                             "ttl", cfg.getSessionTtlSeconds(),
                             "interval", cfg.getPollIntervalMs()
                     ))
@@ -135,43 +166,81 @@ public class QRLoginIdentityProvider extends AbstractIdentityProvider<IdentityPr
         }
 
         @GET
-        public Response authResponse(@QueryParam("kc_session") String kcSessionId, @QueryParam("qr_session") String qrSessionId, @QueryParam("token") String token, @QueryParam("timestamp") String timestamp, @QueryParam("sign") String sign) {
+        public Response authResponse(@QueryParam("kc_session") String kcSessionId, @QueryParam("qr_session") String qrSessionId, @QueryParam("token") String token, @QueryParam("timestamp") String timestamp, @QueryParam("sign") String sign, @QueryParam("kid") String kid,
+                                     @QueryParam("user_id") String userId, @QueryParam("device_id") String deviceId, @QueryParam("device_sign") String deviceSign, @QueryParam("device_ts") String deviceTs) {
 
-            if (token == null || timestamp == null || sign == null || qrSessionId == null || kcSessionId == null) {
+            // 设备签名确认的回调不带令牌，改为携带设备签名
+            boolean device = token == null && deviceSign != null && !"off".equals(qrIdp.cfg.getDeviceSignature());
+            if ((token == null && !device) || timestamp == null || sign == null || qrSessionId == null || kcSessionId == null) {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
             Map<String, String> params = new HashMap<>();
             params.put("qr_session", qrSessionId);
             params.put("kc_session", kcSessionId);
-            params.put("token", token);
             params.put("timestamp", timestamp);
             params.put("sign", sign);
+            if (device) {
+                params.put("user_id", userId);
+                params.put("device_id", deviceId);
+                params.put("device_sign", deviceSign);
+                params.put("device_ts", deviceTs);
+            } else {
+                params.put("token", token);
+            }
+            if (kid != null) {
+                params.put("kid", kid);
+            }
             try {
                 qrIdp.signatureUtil.verify(params);
             } catch (SignatureException e) {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
             QRSession qrs = qrIdp.store.get(qrSessionId);
-            if (qrs == null || !qrs.getKcSessionId().equals(kcSessionId) || qrs.getStatus() != QRSessionStatus.CONFIRMED) {
+            if (qrs == null || !qrs.kcSessionId().equals(kcSessionId) || qrs.status() != QRSessionStatus.CONFIRMED) {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            // 回调地址可能被转发到其他浏览器，只有持有发起扫码的认证会话 cookie 的浏览器才能完成登录
+            RealmModel realmModel = qrIdp.session.getContext().getRealm();
+            RootAuthenticationSessionModel root = new AuthenticationSessionManager(qrIdp.session).getCurrentRootAuthenticationSession(realmModel);
+            if (root == null || !root.getId().equals(qrs.kcSessionId())) {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
 
-            TokenUtil.IntrospectConfig config = new TokenUtil.IntrospectConfig();
-            config.setClientId(qrIdp.cfg.getClientId());
-            config.setClientSecret(qrIdp.cfg.getSecret());
-            String baseUrl = qrIdp.session.getContext().getUri().getBaseUri().toString();
-            String realm = qrIdp.session.getContext().getRealm().getName();
-            config.setBaseUrl(baseUrl);
-            config.setRealm(realm);
-
-
-            TokenUtil.TokenValidationResult tokenValidationResult = TokenUtil.verifyToken(token,config);
-            if (!tokenValidationResult.valid()) {
+            TokenUtil.TokenValidationResult tokenValidationResult;
+            if (device) {
+                // 重新验证 confirm 时的设备签名，不依赖共享 HMAC 密钥确定用户身份
+                UserModel user;
+                try {
+                    user = qrIdp.deviceKeys.verify(qrIdp.session, realmModel, "confirm",
+                            DeviceKeyRegistry.fields(userId, deviceId, qrSessionId, kcSessionId, deviceTs), deviceSign);
+                } catch (SignatureException e) {
+                    return Response.status(Response.Status.NOT_FOUND).build();
+                }
+                tokenValidationResult = TokenUtil.TokenValidationResult.valid(user.getUsername(), null, user.getEmail(), user.getId(), List.of(), null);
+            } else {
+                try {
+                    tokenValidationResult = TokenUtil.verifyToken(token, qrIdp.session, qrIdp.runtime);
+                } catch (CallRejectedException e) {
+                    return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                            .header("Retry-After", e.getRetryAfterSeconds()).build();
+                }
+                if (tokenValidationResult.retryable()) {
+                    return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", 1).build();
+                }
+                if (!tokenValidationResult.valid()) {
+                    return Response.status(Response.Status.NOT_FOUND).build();
+                }
+            }
+            // 二维码会话中只有ID，按根会话、客户端ID和 tabId 重新定位认证会话
+            ClientModel client = realmModel.getClientById(qrs.clientId());
+            AuthenticationSessionModel authSession = root == null || client == null ? null : root.getAuthenticationSession(client, qrs.tabId());
+            if (authSession == null) {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            // 回调地址只能使用一次；校验全部通过后才记录，503 后用同一地址重试仍然有效
+            if (!qrIdp.replayCache.firstSeen("callback", sign, Long.parseLong(timestamp))) {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
-            AuthenticationSessionManager asm = new AuthenticationSessionManager(qrIdp.session);
-            RootAuthenticationSessionModel root = asm.getCurrentRootAuthenticationSession(qrIdp.session.getContext().getRealm());
-            AuthenticationSessionModel authSession = root.getAuthenticationSession(qrs.getAuthSession().getClient(), qrs.getAuthSession().getTabId());
 
             BrokeredIdentityContext federatedIdentity = new BrokeredIdentityContext(tokenValidationResult.sub(), qrIdp.getConfig());
             federatedIdentity.setIdp(qrIdp);
@@ -181,7 +250,10 @@ public class QRLoginIdentityProvider extends AbstractIdentityProvider<IdentityPr
             federatedIdentity.setAuthenticationSession(authSession);
 
 
-            return callback.authenticated(federatedIdentity);
+            Response response = callback.authenticated(federatedIdentity);
+            // 回调完成后二维码会话已无用，立即移出存储，回调地址也随之失效
+            qrIdp.store.delete(qrSessionId);
+            return response;
 
         }
 
@@ -5,12 +5,14 @@ import org.keycloak.broker.provider.AbstractIdentityProviderFactory;
 import org.keycloak.models.IdentityProviderModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
 import org.keycloak.provider.ProviderConfigProperty;
-import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.config.QRLoginRuntime;
 import top.ysit.qrlogin.core.SessionStore;
 import top.ysit.qrlogin.core.security.SignatureConfig;
 import top.ysit.qrlogin.core.util.QRLoginStoreUtil;
 
+import java.security.SignatureException;
 import java.util.*;
 
 public class QRLoginIdentityProviderFactory extends AbstractIdentityProviderFactory<QRLoginIdentityProvider> {
@@ -24,18 +26,30 @@ public class QRLoginIdentityProviderFactory extends AbstractIdentityProviderFact
 
     @Override
     public QRLoginIdentityProvider create(KeycloakSession session, IdentityProviderModel model) {
-        // 直接实例化，不依赖注入
-        SessionStore store = QRLoginStoreUtil.getSharedSessionStore(session, session.getContext().getRealm());
-        QRLoginConfig config = new QRLoginConfig(model);
-        return new QRLoginIdentityProvider(session, config, store);
+        // 直接实例化，不依赖注入；配置和签名器取自 realm 快照，传入的模型与快照不一致时按模型构建
+        QRLoginRuntime runtime;
+        try {
+            runtime = QRLoginStoreUtil.getRuntime(session, session.getContext().getRealm(), model);
+        } catch (SignatureException e) {
+            throw new RuntimeException(e);
+        }
+        return new QRLoginIdentityProvider(session, runtime, QRLoginStoreUtil.getSharedReplayCache(session, runtime),
+                QRLoginStoreUtil.getSharedDeviceKeys(session), QRLoginStoreUtil.getImageCache(), QRLoginStoreUtil.getPrerenderer(runtime.config()));
     }
 
     @Override
     public QRLoginIdentityProvider create(KeycloakSession session) {
-        IdentityProviderModel model = createConfig();
-        QRLoginConfig config = new QRLoginConfig(model);
-        SessionStore store = QRLoginStoreUtil.getSharedSessionStore(session, session.getContext().getRealm());
-        return new QRLoginIdentityProvider(session, config, store);
+        // 默认配置不缓存
+        RealmModel realm = session.getContext().getRealm();
+        SessionStore store = QRLoginStoreUtil.getSharedSessionStore(session, realm);
+        QRLoginRuntime runtime;
+        try {
+            runtime = QRLoginRuntime.build(realm.getName(), createConfig(), store, -1);
+        } catch (SignatureException e) {
+            throw new RuntimeException(e);
+        }
+        return new QRLoginIdentityProvider(session, runtime, QRLoginStoreUtil.getSharedReplayCache(session, runtime),
+                QRLoginStoreUtil.getSharedDeviceKeys(session), QRLoginStoreUtil.getImageCache(), QRLoginStoreUtil.getPrerenderer(runtime.config()));
     }
 
 
@@ -61,13 +75,45 @@ public class QRLoginIdentityProviderFactory extends AbstractIdentityProviderFact
     private Map<String, String> getDefaultConfig() {
         Map<String, String> config = new HashMap<>();
         config.put("sessionTtlSeconds", "120");
+        config.put("qrPayloadFormat", "json");
+        config.put("qrImageFormat", "png");
+        config.put("qrImageInline", "false");
+        config.put("qrWarmPool", "false");
+        config.put("qrWarmPoolMaxSize", "256");
         config.put("pollIntervalMs", "1500");
+        config.put("pollMaxIntervalMs", "6000");
+        config.put("pollBusyThreshold", "200");
+        config.put("longPollTimeoutSeconds", "25");
+        config.put("maxSessions", "10000");
+        config.put("maxSessionsPerBrowser", "3");
         config.put("storeType", "memory");
         config.put("redisUri", "redis://127.0.0.1:6379");
         config.put("redisNamespace", "qrlogin:");
+        config.put("redisPoolSize", "8");
+        config.put("redisTimeoutMs", "2000");
+        config.put("infinispanOwners", "2");
+        config.put("nearCacheMaxAgeMs", "5000");
+        config.put("tokenVerification", "local");
+        config.put("appClientId", "");
+        config.put("introspectionUrl", "");
+        config.put("introspectionConnectTimeoutMs", "2000");
+        config.put("introspectionTimeoutMs", "3000");
+        config.put("tokenCacheTtlSeconds", "30");
+        config.put("tokenCacheNegativeTtlSeconds", "5");
+        config.put("verifyMaxConcurrent", "16");
+        config.put("verifyMaxWaitMs", "100");
+        config.put("breakerFailureThreshold", "5");
+        config.put("breakerOpenSeconds", "10");
         config.put("hmacSecret", "change-me");
+        config.put("hmacKeys", "");
+        config.put("hmacActiveKid", "");
+        config.put("deviceSignature", "off");
+        config.put("deviceKeyCacheSize", "10000");
         config.put("algorithm", SignatureConfig.SignatureAlgorithm.HMAC_SHA256.toString());
         config.put("timeWindowSeconds", "5");
+        config.put("replayProtection", "true");
+        config.put("replayCacheType", "shared");
+        config.put("replayMaxEntries", "100000");
         return config;
     }
 
@@ -84,7 +130,7 @@ public class QRLoginIdentityProviderFactory extends AbstractIdentityProviderFact
 
     @Override
     public void close() {
-        // 清理资源
+        QRLoginStoreUtil.closePrerenderer();
     }
 
     @Override
@@ -96,13 +142,45 @@ public class QRLoginIdentityProviderFactory extends AbstractIdentityProviderFact
     public List<ProviderConfigProperty> getConfigProperties() {
         List<ProviderConfigProperty> props = new ArrayList<>();
         props.add(prop("sessionTtlSeconds", "Session TTL (s)", "二维码会话有效期(秒)", ProviderConfigProperty.STRING_TYPE, "120"));
-        props.add(prop("pollIntervalMs", "Poll Interval (ms)", "前端轮询间隔(毫秒)", ProviderConfigProperty.STRING_TYPE, "1500"));
-        props.add(prop("storeType", "Store Type", "redis 或 memory", "memory", Arrays.asList("redis", "memory")));
+        props.add(prop("qrPayloadFormat", "QR Payload Format", "json 为完整 JSON；compact 为 qrl:1:<realm>:<qr_session>:<kc_session>，App 需从 qr/descriptor 获取端点信息", "json", Arrays.asList("json", "compact")));
+        props.add(prop("qrImageFormat", "QR Image Format", "png 为 512px PNG 图片；svg 为合并行程的矢量图，体积和 CPU 开销更小；modules 只返回模块位图，由主题自行绘制", "png", Arrays.asList("png", "svg", "modules")));
+        props.add(prop("qrImageInline", "QR Image Inline", "开启时 png/svg 图片以数据 URL 内嵌在登录响应中；关闭时只返回 qr/image 地址，由浏览器单独加载并缓存", ProviderConfigProperty.BOOLEAN_TYPE, "false"));
+        props.add(prop("qrWarmPool", "QR Warm Pool", "绑定会话后在后台线程预渲染二维码图片，浏览器请求 qr/image 时直接命中缓存", ProviderConfigProperty.BOOLEAN_TYPE, "false"));
+        props.add(prop("qrWarmPoolMaxSize", "QR Warm Pool Max Size", "后台渲染队列长度上限，队列满时由 qr/image 按需渲染", ProviderConfigProperty.STRING_TYPE, "256"));
+        props.add(prop("pollIntervalMs", "Poll Interval (ms)", "前端轮询基准间隔(毫秒)，已扫码时缩短为三分之一", ProviderConfigProperty.STRING_TYPE, "1500"));
+        props.add(prop("pollMaxIntervalMs", "Poll Max Interval (ms)", "未扫码二维码逐步放慢轮询，以及服务端繁忙时放慢轮询的上限(毫秒)；实际不超过签名时间窗口减去 1.6 秒，避免确认后回调地址过期", ProviderConfigProperty.STRING_TYPE, "6000"));
+        props.add(prop("pollBusyThreshold", "Poll Busy Threshold", "本节点同时处理的状态请求超过该值时，未扫码会话的轮询间隔翻倍", ProviderConfigProperty.STRING_TYPE, "200"));
+        props.add(prop("longPollTimeoutSeconds", "Long Poll Timeout (s)", "状态长轮询最长挂起时间(秒)", ProviderConfigProperty.STRING_TYPE, "25"));
+        props.add(prop("maxSessions", "Max Sessions", "memory 存储最多同时保留的二维码会话数，已满时优先淘汰未扫码的会话", ProviderConfigProperty.STRING_TYPE, "10000"));
+        props.add(prop("maxSessionsPerBrowser", "Max Sessions Per Browser", "同一浏览器最多同时持有的未扫码二维码数，超出时旧二维码失效", ProviderConfigProperty.STRING_TYPE, "3"));
+        props.add(prop("storeType", "Store Type", "redis、memory 或 infinispan(使用 Keycloak 内置集群缓存)", "memory", Arrays.asList("redis", "memory", "infinispan")));
         props.add(prop("redisUri", "Redis URI", "如 redis://127.0.0.1:6379", ProviderConfigProperty.STRING_TYPE, "redis://127.0.0.1:6379"));
         props.add(prop("redisNamespace", "Redis Namespace", "键前缀", ProviderConfigProperty.STRING_TYPE, "qrlogin:"));
+        props.add(prop("redisPoolSize", "Redis Pool Size", "Redis 连接池大小", ProviderConfigProperty.STRING_TYPE, "8"));
+        props.add(prop("redisTimeoutMs", "Redis Timeout (ms)", "Redis 命令超时(毫秒)", ProviderConfigProperty.STRING_TYPE, "2000"));
+        props.add(prop("infinispanOwners", "Infinispan Owners", "infinispan 存储的副本数", ProviderConfigProperty.STRING_TYPE, "2"));
+        props.add(prop("nearCacheMaxAgeMs", "Near Cache Max Age (ms)", "redis/infinispan 存储在本节点缓存会话快照的最长时间(毫秒)，正常情况下由集群状态通知提前失效", ProviderConfigProperty.STRING_TYPE, "5000"));
+        props.add(prop("tokenVerification", "Token Verification", "local 在 Keycloak 进程内验签并检查用户会话；introspection 调用 introspect 接口(需配置 clientId/clientSecret)", "local", Arrays.asList("local", "introspection")));
+        props.add(prop("appClientId", "App Client ID", "App 登录使用的客户端ID，只接受签发给该客户端(azp 或 aud)的访问令牌；留空则使用 Client ID，两者都为空时拒绝所有令牌", ProviderConfigProperty.STRING_TYPE, ""));
+        props.add(prop("introspectionUrl", "Introspection URL", "introspection 方式使用的 introspect 地址，留空则使用当前 realm，可指向独立的签发 realm", ProviderConfigProperty.STRING_TYPE, ""));
+        props.add(prop("introspectionConnectTimeoutMs", "Introspection Connect Timeout (ms)", "introspect 建连超时(毫秒)", ProviderConfigProperty.STRING_TYPE, "2000"));
+        props.add(prop("introspectionTimeoutMs", "Introspection Timeout (ms)", "introspect 请求超时(毫秒)", ProviderConfigProperty.STRING_TYPE, "3000"));
+        props.add(prop("tokenCacheTtlSeconds", "Token Cache TTL (s)", "令牌校验通过的结果最长缓存时间(秒)，不超过令牌过期时间，0 表示不缓存", ProviderConfigProperty.STRING_TYPE, "30"));
+        props.add(prop("tokenCacheNegativeTtlSeconds", "Token Cache Negative TTL (s)", "令牌校验失败的结果缓存时间(秒)，0 表示不缓存", ProviderConfigProperty.STRING_TYPE, "5"));
+        props.add(prop("verifyMaxConcurrent", "Verify Max Concurrent", "同时进行的令牌校验数上限，超出的请求直接返回可重试错误", ProviderConfigProperty.STRING_TYPE, "16"));
+        props.add(prop("verifyMaxWaitMs", "Verify Max Wait (ms)", "等待校验并发许可、或等待同一令牌进行中校验的最长时间(毫秒)", ProviderConfigProperty.STRING_TYPE, "100"));
+        props.add(prop("breakerFailureThreshold", "Breaker Failure Threshold", "令牌校验连续失败(超时、网络错误)多少次后熔断", ProviderConfigProperty.STRING_TYPE, "5"));
+        props.add(prop("breakerOpenSeconds", "Breaker Open (s)", "熔断后多久放行一次探测请求(秒)", ProviderConfigProperty.STRING_TYPE, "10"));
         props.add(prop("hmacSecret", "HMAC Secret", "App 签名校验秘钥", ProviderConfigProperty.PASSWORD, "change-me"));
+        props.add(prop("hmacKeys", "HMAC Keys", "签名密钥环，每行 kid=secret[|生效时间[|失效时间]]，时间为 ISO-8601；配置后取代 HMAC Secret，按请求中的 kid 选择密钥", ProviderConfigProperty.TEXT_TYPE, ""));
+        props.add(prop("hmacActiveKid", "HMAC Active Key ID", "服务端签名和二维码下发使用的密钥ID，为空时取密钥环第一把；该密钥不在有效期内时改用有效期内最新生效的密钥", ProviderConfigProperty.STRING_TYPE, ""));
+        props.add(prop("deviceSignature", "Device Signature", "off 仅使用共享 HMAC；optional 允许 App 用登记的设备私钥签名代替 HMAC，confirm 时不再校验令牌；required 只接受设备签名", "off", Arrays.asList("off", "optional", "required")));
+        props.add(prop("deviceKeyCacheSize", "Device Key Cache Size", "内存中缓存的已解析设备公钥数", ProviderConfigProperty.STRING_TYPE, "10000"));
         props.add(prop("algorithm", "Algorithm", "签名算法", SignatureConfig.SignatureAlgorithm.HMAC_SHA256.toString(), SignatureConfig.SignatureAlgorithm.toStringList()));
         props.add(prop("timeWindowSeconds", "Time Window Seconds", "请求有效时间范围(秒)", ProviderConfigProperty.INTEGER_TYPE,"5"));
+        props.add(prop("replayProtection", "Replay Protection", "拒绝时间窗口内重复提交的签名请求", ProviderConfigProperty.BOOLEAN_TYPE, "true"));
+        props.add(prop("replayCacheType", "Replay Cache", "shared 使用与会话存储相同的 redis/infinispan 后端在集群内去重，local 仅在本节点去重", "shared", Arrays.asList("shared", "local")));
+        props.add(prop("replayMaxEntries", "Replay Max Entries", "本地重放记录精确保存的签名数，超出后使用布隆过滤器", ProviderConfigProperty.STRING_TYPE, "100000"));
         return props;
     }
 
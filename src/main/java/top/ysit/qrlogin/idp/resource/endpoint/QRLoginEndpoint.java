@@ -1,47 +1,79 @@
 package top.ysit.qrlogin.idp.resource.endpoint;
 
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.CompletionCallback;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
 import jakarta.ws.rs.core.UriBuilder;
 import org.keycloak.events.EventBuilder;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
 import org.keycloak.services.resource.RealmResourceProvider;
 import org.keycloak.services.resources.RealmsResource;
 import org.keycloak.utils.MediaType;
 import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.config.QRLoginRuntime;
 import top.ysit.qrlogin.core.QRSession;
 import top.ysit.qrlogin.core.QRSessionStatus;
 import top.ysit.qrlogin.core.SessionStore;
-import top.ysit.qrlogin.core.security.SignatureConfig;
+import top.ysit.qrlogin.core.device.DeviceKeyRegistry;
+import top.ysit.qrlogin.core.notify.StatusWaiters;
+import top.ysit.qrlogin.core.replay.ReplayCache;
+import top.ysit.qrlogin.core.resilience.PollAdvisor;
+import top.ysit.qrlogin.core.resilience.exception.CallRejectedException;
 import top.ysit.qrlogin.core.security.SignatureUtil;
+import top.ysit.qrlogin.core.util.JsonUtil;
+import top.ysit.qrlogin.core.util.QRImageCache;
+import top.ysit.qrlogin.core.util.QRPayloadUtil;
+import top.ysit.qrlogin.core.util.StatusBodies;
 import top.ysit.qrlogin.core.util.TokenUtil;
-import top.ysit.qrlogin.idp.QRLoginIdentityProviderFactory;
 
-import java.net.URI;
 import java.security.SignatureException;
-import java.time.Instant;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 public class QRLoginEndpoint extends RealmsResource implements RealmResourceProvider {
+    // 描述信息只在修改配置或轮换密钥时变化
+    private static final int DESCRIPTOR_MAX_AGE_SECONDS = 300;
+    // 304 没有响应体，轮询间隔建议同时放在响应头中
+    private static final String NEXT_POLL_HEADER = "X-Next-Poll-Ms";
+
     private final KeycloakSession session;
     private final SessionStore store;
     private final SignatureUtil signatureUtil;
+    private final StatusWaiters statusWaiters;
+    private final ReplayCache replayCache;
+    private final DeviceKeyRegistry deviceKeys;
+    private final QRImageCache imageCache;
+    private final StatusBodies statusBodies;
+    private final PollAdvisor pollAdvisor;
 
     private final QRLoginConfig qrLoginConfig;
+    private final QRLoginRuntime runtime;
 
-    public QRLoginEndpoint(KeycloakSession session, EventBuilder event, SessionStore store, QRLoginConfig qrLoginConfig) throws SignatureException {
+    public QRLoginEndpoint(KeycloakSession session, EventBuilder event, QRLoginRuntime runtime, StatusWaiters statusWaiters,
+                           ReplayCache replayCache, DeviceKeyRegistry deviceKeys, QRImageCache imageCache,
+                           StatusBodies statusBodies, PollAdvisor pollAdvisor) {
         this.session = session;
-        this.store = store;
-        this.qrLoginConfig = qrLoginConfig;
-        SignatureConfig config = new SignatureConfig(
-                qrLoginConfig.getHmacSecret(),
-                qrLoginConfig.getAlgorithm(),
-                qrLoginConfig.getTimeWindowSeconds()
-        );
-        this.signatureUtil = new SignatureUtil(config);
+        this.runtime = runtime;
+        this.store = runtime.store();
+        this.statusWaiters = statusWaiters;
+        this.replayCache = replayCache;
+        this.deviceKeys = deviceKeys;
+        this.imageCache = imageCache;
+        this.statusBodies = statusBodies;
+        this.pollAdvisor = pollAdvisor;
+        this.qrLoginConfig = runtime.config();
+        this.signatureUtil = runtime.signer();
     }
 
 
@@ -49,14 +81,19 @@ public class QRLoginEndpoint extends RealmsResource implements RealmResourceProv
     @Path("qr/scan")
     @Consumes(MediaType.APPLICATION_JSON)
     public Response scan(Map<String, String> body) {
-        ValidationResult result = validateRequest(body);
+        ValidationResult result;
+        try {
+            result = validateRequest("scan", body);
+        } catch (CallRejectedException e) {
+            return unavailable(e);
+        }
         if (!result.valid()) {
             return Response.ok(
                     Map.of("error", result.errorMessage()),
                     MediaType.APPLICATION_JSON
             ).build();
         }
-        if (result.qrSessionObj().getStatus() != QRSessionStatus.PENDING) {
+        if (result.qrSessionObj().status() != QRSessionStatus.PENDING) {
             return Response.ok(
                     Map.of("error", "Qr not found"),
                     MediaType.APPLICATION_JSON
@@ -74,29 +111,38 @@ public class QRLoginEndpoint extends RealmsResource implements RealmResourceProv
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
     public Response confirm(Map<String, String> body) {
-        ValidationResult result = validateRequest(body);
+        ValidationResult result;
+        try {
+            result = validateRequest("confirm", body);
+        } catch (CallRejectedException e) {
+            return unavailable(e);
+        }
         if (!result.valid()) {
             return Response.ok(
                     Map.of("error", result.errorMessage()),
                     MediaType.APPLICATION_JSON
             ).build();
         }
-        if (result.qrSessionObj().getStatus() != QRSessionStatus.SCANNED) {
+        if (result.qrSessionObj().status() != QRSessionStatus.SCANNED) {
             return Response.ok(
                     Map.of("error", "Qr not found"),
                     MediaType.APPLICATION_JSON
             ).build();
         }
-        RealmModel realm = session.getContext().getRealm();
-        String providerAlias = QRLoginIdentityProviderFactory.PROVIDER_ID;
-
-        //签名参数
+        //签名参数；设备签名确认时回调携带设备签名代替令牌，回调时重新验证
         long timestamp = System.currentTimeMillis() / 1000;
         Map<String, String> params = new HashMap<>();
         params.put("qr_session", result.qrSession);
         params.put("kc_session", result.kcSession);
-        params.put("token", body.get("token"));
         params.put("timestamp", String.valueOf(timestamp));
+        if (result.deviceFields() == null) {
+            params.put("token", body.get("token"));
+        } else {
+            params.put("user_id", result.deviceFields().get("user_id"));
+            params.put("device_id", result.deviceFields().get("device_id"));
+            params.put("device_sign", result.deviceFields().get("device_sign"));
+            params.put("device_ts", result.deviceFields().get("timestamp"));
+        }
         String signature;
         try {
             signature = signatureUtil.sign(params);
@@ -108,23 +154,15 @@ public class QRLoginEndpoint extends RealmsResource implements RealmResourceProv
         }
 
 
-        URI base = session.getContext().getUri().getBaseUri();
-        URI callbackUri = UriBuilder.fromUri(base)
-                .path("realms")
-                .path(realm.getName())
-                .path("broker")
-                .path(providerAlias)
-                .path("endpoint")
-                .queryParam("qr_session", result.qrSession)
-                .queryParam("kc_session", result.kcSession)
-                .queryParam("token", body.get("token"))
-                .queryParam("timestamp", timestamp)
-                .queryParam("sign", signature)
-                .build();
+        UriBuilder callbackUri = UriBuilder.fromUri(runtime.urls(session).callback());
+        for (Map.Entry<String, String> e : params.entrySet()) {
+            callbackUri.queryParam(e.getKey(), e.getValue());
+        }
+        callbackUri.queryParam("kid", signatureUtil.getActiveKid())
+                .queryParam("sign", signature);
 
-        String callbackUrl = callbackUri.toString();
-        this.store.setResponseUrl(result.qrSession(), callbackUrl);
-        this.store.setConfirmed(result.qrSession(), result.tokenResult().email());
+        String callbackUrl = callbackUri.build().toString();
+        this.store.confirm(result.qrSession(), result.tokenResult().email(), callbackUrl);
         return Response.ok(Map.of("status", "ok")).build();
     }
 
@@ -132,89 +170,431 @@ public class QRLoginEndpoint extends RealmsResource implements RealmResourceProv
     @GET
     @Path("qr/status")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response status(@QueryParam("kc_session") String kcSession, @QueryParam("qr_session") String qrSession, @QueryParam("timestamp") String timestamp) {
-        if (kcSession == null || qrSession == null || timestamp == null) {
+    public Response status(@QueryParam("kc_session") String kcSession, @QueryParam("qr_session") String qrSession, @QueryParam("timestamp") String timestamp,
+                           @HeaderParam("If-None-Match") String ifNoneMatch) {
+        if (kcSession == null || qrSession == null || timestamp == null || !signatureUtil.isTimestampFresh(timestamp)) {
             return Response.status(Response.Status.BAD_REQUEST).build();
         }
+        pollAdvisor.enter();
+        try {
+            // 状态未变化时只读版本摘要，返回不带响应体的 304，轮询间隔建议放在响应头中
+            if (ifNoneMatch != null) {
+                long now = System.currentTimeMillis();
+                SessionStore.Stamp stamp = this.store.stamp(qrSession, kcSession, now);
+                if (stamp != null && etagMatches(ifNoneMatch, etag(stamp.version()))) {
+                    return Response.notModified()
+                            .header("ETag", etag(stamp.version()))
+                            .header(NEXT_POLL_HEADER, nextPollMs(stamp.status(), stamp.createdAt(), now))
+                            .build();
+                }
+            }
+            return statusResponse(this.store.get(qrSession), kcSession);
+        } finally {
+            pollAdvisor.exit();
+        }
+    }
+
+    /**
+     * 紧凑二维码的 realm 级描述，App 按 realm 获取一次后缓存
+     */
+    @GET
+    @Path("qr/descriptor")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response descriptor() {
+        RealmModel realm = session.getContext().getRealm();
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge(DESCRIPTOR_MAX_AGE_SECONDS);
+        return Response.ok(QRPayloadUtil.descriptor(runtime.urls(session).endpoint(), realm.getName(), qrLoginConfig,
+                        signatureUtil.getActiveKid()), MediaType.APPLICATION_JSON)
+                .cacheControl(cacheControl)
+                .build();
+    }
+
+    /**
+     * 二维码图片：内容在会话有效期内不变，本节点每个会话只渲染一次，带强 ETag 和私有缓存头
+     */
+    @GET
+    @Path("qr/image")
+    public Response image(@QueryParam("kc_session") String kcSession, @QueryParam("qr_session") String qrSession,
+                          @QueryParam("format") String format, @HeaderParam("If-None-Match") String ifNoneMatch) {
+        if (kcSession == null || qrSession == null) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        QRSession qrs = this.store.get(qrSession);
+        if (qrs == null || qrs.status() == QRSessionStatus.EXPIRED) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (!kcSession.equals(qrs.kcSessionId())) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        String imageFormat = format != null ? format : qrLoginConfig.getQrImageFormat();
+        RealmModel realm = session.getContext().getRealm();
+        QRImageCache.Image image = imageCache.render(runtime.urls(session).endpoint(), realm.getName(), qrs,
+                qrLoginConfig, signatureUtil.getActiveKid(), imageFormat);
+
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setPrivate(true);
+        cacheControl.setMaxAge((int) Math.max(0, (qrs.expireAt() - System.currentTimeMillis()) / 1000));
+        if (ifNoneMatch != null && etagMatches(ifNoneMatch, image.etag())) {
+            return Response.notModified().header("ETag", image.etag()).cacheControl(cacheControl).build();
+        }
+        return Response.ok(image.bytes(), image.contentType())
+                .header("ETag", image.etag())
+                .cacheControl(cacheControl)
+                .build();
+    }
+
+    /**
+     * 长轮询版 qr/status：带回的 ETag 与当前状态版本相同(未带 ETag 时为状态与 last 相同)时挂起请求，
+     * 直到状态变化或 longPollTimeoutSeconds 超时；超时仍未变化且带了 ETag 时返回 304
+     */
+    @GET
+    @Path("qr/status/wait")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void waitStatus(@QueryParam("kc_session") String kcSession, @QueryParam("qr_session") String qrSession, @QueryParam("timestamp") String timestamp,
+                           @QueryParam("last") String last, @HeaderParam("If-None-Match") String ifNoneMatch,
+                           @Suspended AsyncResponse asyncResponse) {
+        if (kcSession == null || qrSession == null || timestamp == null || !signatureUtil.isTimestampFresh(timestamp)) {
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+        // 挂起的长轮询同样计入本节点的状态请求数，响应写出后释放
+        pollAdvisor.enter();
+        asyncResponse.register((CompletionCallback) t -> pollAdvisor.exit());
+
+        QRSession qrs = this.store.get(qrSession);
+        boolean unchanged = qrs != null && kcSession.equals(qrs.kcSessionId()) && (ifNoneMatch != null
+                ? etagMatches(ifNoneMatch, etag(qrs.version()))
+                : last != null && last.equals(qrs.status().name()));
+        if (!unchanged) {
+            asyncResponse.resume(statusResponse(qrs, kcSession));
+            return;
+        }
+
+        long seenVersion = qrs.version();
+        long timeoutMs = Math.min(qrLoginConfig.getLongPollTimeoutSeconds() * 1000L,
+                qrs.expireAt() - System.currentTimeMillis());
+        StatusWaiters.Waiter waiter = statusWaiters.await(qrSession, timeoutMs,
+                () -> asyncResponse.resume(conditionalStatusResponse(this.store.get(qrSession), kcSession, ifNoneMatch)));
+        asyncResponse.register((CompletionCallback) t -> waiter.cancel());
+
+        // 挂起前状态可能已经变化，补查一次避免错过唤醒
+        QRSession current = this.store.get(qrSession);
+        if (current == null || current.version() != seenVersion) {
+            waiter.wake();
+        }
+    }
+
+    /**
+     * SSE 版 qr/status：每个弹窗保持一条 text/event-stream 连接，状态迁移时立即推送，到达终态或过期后关闭
+     */
+    @GET
+    @Path("qr/events")
+    @Produces(jakarta.ws.rs.core.MediaType.SERVER_SENT_EVENTS)
+    public void events(@QueryParam("kc_session") String kcSession, @QueryParam("qr_session") String qrSession, @QueryParam("timestamp") String timestamp,
+                       @Context SseEventSink sink, @Context Sse sse) {
+        if (kcSession == null || qrSession == null || timestamp == null) {
+            throw new BadRequestException();
+        }
         try {
             signatureUtil.validateTimestamp(timestamp);
         } catch (SignatureException e) {
-            return Response.status(Response.Status.BAD_REQUEST).build();
+            throw new BadRequestException();
         }
 
         QRSession qrs = this.store.get(qrSession);
+        if (qrs == null || qrs.isExpired(System.currentTimeMillis())) {
+            throw new NotFoundException();
+        }
+        if (!kcSession.equals(qrs.kcSessionId())) {
+            throw new ForbiddenException();
+        }
+
+        // 先订阅再推送当前状态，避免两者之间的迁移被漏掉；重复推送同一状态对前端无副作用
+        AtomicReference<StatusWaiters.Watch> watch = new AtomicReference<>();
+        watch.set(statusWaiters.watch(qrSession, qrs.expireAt() - System.currentTimeMillis(),
+                status -> {
+                    StatusWaiters.Watch w = watch.get();
+                    if (sendStatus(sink, sse, this.store.get(qrSession)) && w != null) {
+                        w.cancel();
+                    }
+                },
+                () -> sendStatus(sink, sse, null)));
+        if (sendStatus(sink, sse, this.store.get(qrSession))) {
+            watch.get().cancel();
+        }
+    }
+
+    /**
+     * 推送一条 status 事件，返回 true 表示已到终态且连接已关闭
+     */
+    private boolean sendStatus(SseEventSink sink, Sse sse, QRSession qrs) {
+        QRSessionStatus status = qrs == null || qrs.isExpired(System.currentTimeMillis()) ? QRSessionStatus.EXPIRED : qrs.status();
+        String url = status == QRSessionStatus.CONFIRMED ? qrs.responseUrl() : "";
+        synchronized (sink) {
+            if (sink.isClosed()) {
+                return true;
+            }
+            sink.send(sse.newEventBuilder()
+                    .name("status")
+                    .data(String.class, JsonUtil.toJson(Map.of("status", status, "url", url)))
+                    .build());
+            if (status == QRSessionStatus.CONFIRMED || status == QRSessionStatus.EXPIRED) {
+                sink.close();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 状态响应：响应体为预先序列化的 JSON 字节，弱 ETag 为会话状态版本
+     */
+    private Response statusResponse(QRSession qrs, String kcSession) {
         if (qrs == null) {
             return Response.status(Response.Status.NOT_FOUND).build();
         }
-        if (!kcSession.equals(qrs.getKcSessionId())) {
+        if (!kcSession.equals(qrs.kcSessionId())) {
             return Response.status(Response.Status.FORBIDDEN).build();
         }
 
-        if (Instant.now().isAfter(qrs.getExpireAt())) {
+        long now = System.currentTimeMillis();
+        if (qrs.isExpired(now)) {
             return Response.status(Response.Status.NOT_FOUND).build();
         }
-        return Response.ok(Map.of(
-                "status", qrs.getStatus(),
-                "url", qrs.getStatus() == QRSessionStatus.CONFIRMED ? qrs.getResponseUrl() : ""
-        )).build();
+        long nextPollMs = nextPollMs(qrs.status(), qrs.createdAt(), now);
+        return Response.ok(statusBodies.body(qrs, nextPollMs), MediaType.APPLICATION_JSON)
+                .header("ETag", etag(qrs.version()))
+                .header(NEXT_POLL_HEADER, nextPollMs)
+                .build();
+    }
+
+    /**
+     * 带 If-None-Match 的状态响应，版本未变化时返回 304
+     */
+    private Response conditionalStatusResponse(QRSession qrs, String kcSession, String ifNoneMatch) {
+        if (ifNoneMatch != null && qrs != null && kcSession.equals(qrs.kcSessionId())
+                && etagMatches(ifNoneMatch, etag(qrs.version()))) {
+            long now = System.currentTimeMillis();
+            if (!qrs.isExpired(now)) {
+                return Response.notModified()
+                        .header("ETag", etag(qrs.version()))
+                        .header(NEXT_POLL_HEADER, nextPollMs(qrs.status(), qrs.createdAt(), now))
+                        .build();
+            }
+        }
+        return statusResponse(qrs, kcSession);
+    }
+
+    private long nextPollMs(QRSessionStatus status, long createdAt, long now) {
+        return pollAdvisor.nextPollMs(qrLoginConfig, status, createdAt, now, this.store.isSaturated());
+    }
+
+    /**
+     * 弱 ETag：同一版本的响应体中 next_poll_ms 可能不同，语义等价但字节不同
+     */
+    private static String etag(long version) {
+        return "W/\"" + version + '"';
+    }
 
+    /**
+     * If-None-Match 按弱比较判断：逐个解析逗号分隔的实体标签，忽略 W/ 前缀后与 etag 的引号部分逐字比较；
+     * {@code *} 匹配任意当前表示
+     */
+    static boolean etagMatches(String ifNoneMatch, String etag) {
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        int i = 0;
+        int n = ifNoneMatch.length();
+        while (i < n) {
+            char c = ifNoneMatch.charAt(i);
+            if (c == ',' || c == ' ' || c == '\t') {
+                i++;
+                continue;
+            }
+            if (c == '*') {
+                return true;
+            }
+            if (ifNoneMatch.startsWith("W/", i)) {
+                i += 2;
+            }
+            if (i >= n || ifNoneMatch.charAt(i) != '"') {
+                return false;
+            }
+            int end = ifNoneMatch.indexOf('"', i + 1);
+            if (end < 0) {
+                return false;
+            }
+            if (ifNoneMatch.regionMatches(i, opaque, 0, opaque.length()) && end + 1 - i == opaque.length()) {
+                return true;
+            }
+            i = end + 1;
+        }
+        return false;
     }
 
     // 在 QRLoginEndpoint 类中添加以下私有方法
-    private ValidationResult validateRequest(Map<String, String> body) {
+    private ValidationResult validateRequest(String action, Map<String, String> body) {
         if (body == null || body.get("timestamp") == null) {
             return ValidationResult.error("Invalid request body");
         }
 
 
-        String secret = qrLoginConfig.getSecret();
-        String clientId = qrLoginConfig.getClientId();
-        if (secret == null || clientId == null) {
-            return ValidationResult.error("Invalid configuration");
-        }
-
-
         String kcSession = body.get("kc_session");
         String qrSession = body.get("qr_session");
         Long timestamp = Long.parseLong(body.get("timestamp"));
         String sign = body.get("sign");
         String token = body.get("token");
+        String deviceSign = body.get("device_sign");
 
+        String deviceMode = qrLoginConfig.getDeviceSignature();
+        if (deviceSign == null && "required".equals(deviceMode)) {
+            return ValidationResult.error("Device signature required");
+        }
+        if (deviceSign != null && "off".equals(deviceMode)) {
+            return ValidationResult.error("Device signature disabled");
+        }
+        // 设备签名的 confirm 以私钥持有证明代替令牌校验
+        boolean tokenRequired = deviceSign == null || !"confirm".equals(action);
 
-        if (kcSession == null || qrSession == null || sign == null || token == null) {
+        if (kcSession == null || qrSession == null || (deviceSign == null && sign == null) || (tokenRequired && token == null)) {
             return ValidationResult.error("Invalid request body");
         }
-        Map<String, String> params = new HashMap<>();
-        params.put("qr_session", qrSession);
-        params.put("kc_session", kcSession);
-        params.put("token", token);
-        params.put("timestamp", String.valueOf(timestamp));
-        params.put("sign", sign);
-        try {
-            if (!signatureUtil.verify(params)) {
+        UserModel deviceUser = null;
+        Map<String, String> deviceFields = null;
+        if (deviceSign == null) {
+            Map<String, String> params = new HashMap<>();
+            params.put("qr_session", qrSession);
+            params.put("kc_session", kcSession);
+            params.put("token", token);
+            params.put("timestamp", String.valueOf(timestamp));
+            params.put("sign", sign);
+            // kid 不参与签名，只用于选择密钥
+            if (body.get("kid") != null) {
+                params.put("kid", body.get("kid"));
+            }
+            try {
+                if (!signatureUtil.verify(params)) {
+                    return ValidationResult.error("Invalid signature");
+                }
+            } catch (SignatureException e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            deviceFields = DeviceKeyRegistry.fields(body.get("user_id"), body.get("device_id"), qrSession, kcSession, String.valueOf(timestamp));
+            try {
+                signatureUtil.validateTimestamp(String.valueOf(timestamp));
+                deviceUser = deviceKeys.verify(session, session.getContext().getRealm(), action, deviceFields, deviceSign);
+            } catch (SignatureException e) {
                 return ValidationResult.error("Invalid signature");
             }
-        } catch (SignatureException e) {
-            throw new RuntimeException(e);
+            deviceFields.put("device_sign", deviceSign);
         }
         QRSession qrs = this.store.get(qrSession);
         if (qrs == null) {
             return ValidationResult.error("QR session not found");
         }
-        if (!kcSession.equals(qrs.getKcSessionId())) {
+        if (!kcSession.equals(qrs.kcSessionId())) {
             return ValidationResult.error("Invalid kcSession");
         }
-        URI baseUri = session.getContext().getUri().getBaseUri();
-        String realm = session.getContext().getRealm().getName();
-        TokenUtil.IntrospectConfig introspectConfig = new TokenUtil.IntrospectConfig(baseUri.toString(), realm, clientId, secret);
-
-
-        TokenUtil.TokenValidationResult tokenValidationResult = TokenUtil.verifyToken(token, introspectConfig);
+        if (!tokenRequired) {
+            if (!replayCache.firstSeen(action, deviceSign, timestamp)) {
+                return ValidationResult.error("Replayed request");
+            }
+            return ValidationResult.success(kcSession, qrSession, qrs, TokenUtil.TokenValidationResult.valid(
+                    deviceUser.getUsername(), null, deviceUser.getEmail(), deviceUser.getId(), List.of(), null), deviceFields);
+        }
+        TokenUtil.TokenValidationResult tokenValidationResult = TokenUtil.verifyToken(token, session, runtime);
+        if (tokenValidationResult.retryable()) {
+            throw new CallRejectedException("Token verification unavailable", 1);
+        }
         if (!tokenValidationResult.valid()) {
             return ValidationResult.error("Invalid token");
         }
+        if (deviceUser != null && !deviceUser.getId().equals(tokenValidationResult.sub())) {
+            return ValidationResult.error("Device does not belong to token user");
+        }
+        // 全部校验通过后才记录签名，令牌校验繁忙(503)后用同一签名重试仍然有效
+        if (!replayCache.firstSeen(action, deviceSign == null ? sign : deviceSign, timestamp)) {
+            return ValidationResult.error("Replayed request");
+        }
+
+        return ValidationResult.success(kcSession, qrSession, qrs, tokenValidationResult, deviceFields);
+    }
+
+    @POST
+    @Path("qr/device/register")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response registerDevice(Map<String, String> body) {
+        if ("off".equals(qrLoginConfig.getDeviceSignature())) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (body == null || body.get("token") == null || body.get("device_id") == null || body.get("alg") == null
+                || body.get("public_key") == null || body.get("timestamp") == null || body.get("sign") == null) {
+            return Response.ok(Map.of("error", "Invalid request body"), MediaType.APPLICATION_JSON).build();
+        }
+        String deviceId = body.get("device_id");
+        String timestamp = body.get("timestamp");
+        // 与扫码、确认一样由 App 的 HMAC 签名覆盖全部字段，时间戳过期或签名不符直接拒绝
+        Map<String, String> params = new HashMap<>();
+        params.put("token", body.get("token"));
+        params.put("device_id", deviceId);
+        params.put("alg", body.get("alg"));
+        params.put("public_key", body.get("public_key"));
+        params.put("timestamp", timestamp);
+        params.put("sign", body.get("sign"));
+        if (body.get("kid") != null) {
+            params.put("kid", body.get("kid"));
+        }
+        try {
+            if (!signatureUtil.verify(params)) {
+                return Response.ok(Map.of("error", "Invalid signature"), MediaType.APPLICATION_JSON).build();
+            }
+        } catch (SignatureException e) {
+            return Response.ok(Map.of("error", "Invalid signature"), MediaType.APPLICATION_JSON).build();
+        }
+        // 令牌须签发给 App 客户端，见 TokenUtil
+        TokenUtil.TokenValidationResult tokenResult;
+        try {
+            tokenResult = TokenUtil.verifyToken(body.get("token"), session, runtime);
+        } catch (CallRejectedException e) {
+            return unavailable(e);
+        }
+        if (tokenResult.retryable()) {
+            return unavailable(new CallRejectedException("Token verification unavailable", 1));
+        }
+        RealmModel realm = session.getContext().getRealm();
+        UserModel user = tokenResult.valid() ? session.users().getUserById(realm, tokenResult.sub()) : null;
+        if (user == null) {
+            return Response.ok(Map.of("error", "Invalid token"), MediaType.APPLICATION_JSON).build();
+        }
+        // 已登记的设备只能由原设备私钥签名替换；设备丢失时由管理员删除用户属性后重新登记
+        if (deviceKeys.isRegistered(user, deviceId)) {
+            Map<String, String> fields = DeviceKeyRegistry.registerFields(user.getId(), deviceId, body.get("alg"),
+                    body.get("public_key"), timestamp);
+            try {
+                deviceKeys.verify(session, realm, "register", fields, body.get("device_sign"));
+            } catch (SignatureException e) {
+                return Response.ok(Map.of("error", "Device already registered"), MediaType.APPLICATION_JSON).build();
+            }
+        }
+        if (!replayCache.firstSeen("register", body.get("sign"), Long.parseLong(timestamp))) {
+            return Response.ok(Map.of("error", "Replayed request"), MediaType.APPLICATION_JSON).build();
+        }
+        try {
+            deviceKeys.register(user, deviceId, body.get("alg"), body.get("public_key"));
+        } catch (SignatureException e) {
+            return Response.ok(Map.of("error", e.getMessage()), MediaType.APPLICATION_JSON).build();
+        }
+        return Response.ok(Map.of("status", "ok", "device_id", deviceId)).build();
+    }
 
-        return ValidationResult.success(kcSession, qrSession, qrs, tokenValidationResult);
+    // 令牌校验被舱壁或熔断器拒绝，快速返回可重试错误，不占用 worker 线程等待
+    private Response unavailable(CallRejectedException e) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", e.getRetryAfterSeconds())
+                .entity(Map.of("error", "Service busy", "retryable", true, "retryAfter", e.getRetryAfterSeconds()))
+                .type(MediaType.APPLICATION_JSON).build();
     }
 
     @Override
@@ -228,14 +608,16 @@ public class QRLoginEndpoint extends RealmsResource implements RealmResourceProv
     }
 
     private record ValidationResult(boolean valid, String errorMessage, String kcSession, String qrSession,
-                                    QRSession qrSessionObj, TokenUtil.TokenValidationResult tokenResult) {
+                                    QRSession qrSessionObj, TokenUtil.TokenValidationResult tokenResult,
+                                    Map<String, String> deviceFields) {
 
         public static ValidationResult error(String errorMessage) {
-            return new ValidationResult(false, errorMessage, null, null, null, null);
+            return new ValidationResult(false, errorMessage, null, null, null, null, null);
         }
 
-        public static ValidationResult success(String kcSession, String qrSession, QRSession qrSessionObj, TokenUtil.TokenValidationResult tokenResult) {
-            return new ValidationResult(true, null, kcSession, qrSession, qrSessionObj, tokenResult);
+        public static ValidationResult success(String kcSession, String qrSession, QRSession qrSessionObj,
+                                               TokenUtil.TokenValidationResult tokenResult, Map<String, String> deviceFields) {
+            return new ValidationResult(true, null, kcSession, qrSession, qrSessionObj, tokenResult, deviceFields);
         }
     }
 }
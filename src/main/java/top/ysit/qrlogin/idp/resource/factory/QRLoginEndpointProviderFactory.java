@@ -8,9 +8,10 @@ import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
 import org.keycloak.services.resource.RealmResourceProvider;
 import org.keycloak.services.resource.RealmResourceProviderFactory;
-import top.ysit.qrlogin.core.SessionStore;
+import top.ysit.qrlogin.config.QRLoginRuntime;
 import top.ysit.qrlogin.core.util.QRLoginStoreUtil;
 import top.ysit.qrlogin.idp.resource.endpoint.QRLoginEndpoint;
+import top.ysit.qrlogin.spi.KeycloakLifecycleListener;
 
 import java.security.SignatureException;
 
@@ -18,14 +19,20 @@ public class QRLoginEndpointProviderFactory implements RealmResourceProviderFact
 
     public static final String ID = "qr-login-endpoint";
 
+    private final KeycloakLifecycleListener lifecycleListener = new KeycloakLifecycleListener();
+    private KeycloakSessionFactory sessionFactory;
+
     @Override
     public RealmResourceProvider create(KeycloakSession keycloakSession) {
         KeycloakContext context = keycloakSession.getContext();
         RealmModel realm = context.getRealm();
         EventBuilder event = new EventBuilder(realm, keycloakSession, context.getConnection());
-        SessionStore store = QRLoginStoreUtil.getSharedSessionStore(keycloakSession, realm);
         try {
-            return new QRLoginEndpoint(keycloakSession, event, store,QRLoginStoreUtil.getQRLoginConfig(keycloakSession));
+            // 配置、签名器和存储取自 realm 快照，不再每个请求查询身份提供者
+            QRLoginRuntime runtime = QRLoginStoreUtil.getRuntime(keycloakSession, realm);
+            return new QRLoginEndpoint(keycloakSession, event, runtime, QRLoginStoreUtil.getStatusWaiters(),
+                    QRLoginStoreUtil.getSharedReplayCache(keycloakSession, runtime), QRLoginStoreUtil.getSharedDeviceKeys(keycloakSession),
+                    QRLoginStoreUtil.getImageCache(), QRLoginStoreUtil.getStatusBodies(), QRLoginStoreUtil.getPollAdvisor());
         } catch (SignatureException e) {
             throw new RuntimeException(e);
         }
@@ -39,12 +46,15 @@ public class QRLoginEndpointProviderFactory implements RealmResourceProviderFact
 
     @Override
     public void postInit(KeycloakSessionFactory keycloakSessionFactory) {
-
+        this.sessionFactory = keycloakSessionFactory;
+        keycloakSessionFactory.register(lifecycleListener);
     }
 
     @Override
     public void close() {
-
+        if (sessionFactory != null) {
+            sessionFactory.unregister(lifecycleListener);
+        }
     }
 
     @Override
@@ -1,4 +1,50 @@
 package top.ysit.qrlogin.spi;
 
-public class KeycloakLifecycleListener {
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.IdentityProviderModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.provider.ProviderEvent;
+import org.keycloak.provider.ProviderEventListener;
+import top.ysit.qrlogin.core.util.QRLoginStoreUtil;
+import top.ysit.qrlogin.idp.QRLoginIdentityProviderFactory;
+
+/**
+ * 监听身份提供者更新、删除和 realm 删除，丢弃对应的运行时快照。
+ * <p>
+ * 事件在管理请求的事务提交前发布，提交后再失效一次，避免并发请求在提交前用旧配置重建快照。
+ */
+public class KeycloakLifecycleListener implements ProviderEventListener {
+
+    @Override
+    public void onEvent(ProviderEvent event) {
+        if (event instanceof RealmModel.IdentityProviderUpdatedEvent e) {
+            if (isQRLogin(e.getUpdatedIdentityProvider())) invalidate(e.getKeycloakSession());
+        } else if (event instanceof RealmModel.IdentityProviderRemovedEvent e) {
+            if (isQRLogin(e.getRemovedIdentityProvider())) invalidate(e.getKeycloakSession());
+        } else if (event instanceof RealmModel.RealmRemovedEvent e) {
+            invalidate(e.getKeycloakSession());
+        }
+    }
+
+    private static boolean isQRLogin(IdentityProviderModel model) {
+        return model != null && (QRLoginIdentityProviderFactory.PROVIDER_ID.equals(model.getProviderId())
+                || QRLoginIdentityProviderFactory.PROVIDER_ID.equals(model.getAlias()));
+    }
+
+    private static void invalidate(KeycloakSession session) {
+        QRLoginStoreUtil.invalidateRuntimes();
+        if (session == null) return;
+        session.getTransactionManager().enlistAfterCompletion(new AbstractKeycloakTransaction() {
+            @Override
+            protected void commitImpl() {
+                QRLoginStoreUtil.invalidateRuntimes();
+            }
+
+            @Override
+            protected void rollbackImpl() {
+                QRLoginStoreUtil.invalidateRuntimes();
+            }
+        });
+    }
 }
@@ -1,3 +1,21 @@
+// 将 modules 格式的模块位图绘制为图片，每个模块 8 像素
+const renderModules = ({size, data}) => {
+    const bits = Uint8Array.from(atob(data), (c) => c.charCodeAt(0));
+    const scale = 8;
+    const canvas = document.createElement("canvas");
+    canvas.width = canvas.height = size * scale;
+    const ctx = canvas.getContext("2d");
+    ctx.fillStyle = "#fff";
+    ctx.fillRect(0, 0, canvas.width, canvas.height);
+    ctx.fillStyle = "#000";
+    for (let i = 0; i < size * size; i++) {
+        if (bits[i >> 3] & (0x80 >> (i & 7))) {
+            ctx.fillRect((i % size) * scale, Math.floor(i / size) * scale, scale, scale);
+        }
+    }
+    return canvas.toDataURL();
+};
+
 document.addEventListener("DOMContentLoaded", () => {
     const qrBtn = document.querySelector('a[id^="social-qrlogin"]');
     if (!qrBtn) return;
@@ -5,13 +23,20 @@ document.addEventListener("DOMContentLoaded", () => {
     qrBtn.addEventListener("click", async (e) => {
         e.preventDefault();
 
-        const res = await fetch(qrBtn.href, {method: "POST"}).then(res => res.text());
+        const resp = await fetch(qrBtn.href, {method: "POST"});
+        const res = await resp.text();
         if (!res) return;
 
         const json = JSON.parse(res);
+        if (resp.status === 503) {
+            alert(`当前扫码登录人数较多，请 ${json.retryAfter || 5} 秒后重试`);
+            return;
+        }
         if (!json.qr_session || !json.kc_session) return;
 
-        const {qr_image_data, ttl, statusUrl, interval} = json;
+        const {ttl, statusUrl, waitUrl, eventsUrl, interval} = json;
+        // 默认只返回图片地址，由浏览器单独加载，轮询不必等待图片解码
+        const qr_image_data = json.qr_image_url || json.qr_image_data || renderModules(json.qr_modules);
 
         // 创建遮罩与弹窗
         const mask = document.createElement("div");
@@ -56,13 +81,74 @@ document.addEventListener("DOMContentLoaded", () => {
         const startTime = Date.now();
         const endTime = startTime + (ttl * 1000);
         let expired = false;
+        // 上一次拿到的状态，长轮询时服务端在状态不变时挂起请求
+        let lastStatus = "";
+        // 带回上次的 ETag：普通轮询在状态未变化时得到不带响应体的 304，长轮询按版本挂起，超时仍未变化时也返回 304
+        let etag = "";
+        // 服务端按会话状态和负载给出的下次轮询间隔，未给出时使用登录响应中的固定间隔
+        let nextPoll = interval;
+        // 页面隐藏时暂停轮询，重新可见时立即查询一次
+        let paused = false;
+        const schedule = (delay) => {
+            if (document.hidden) {
+                paused = true;
+                return;
+            }
+            setTimeout(poll, delay);
+        };
+        document.addEventListener("visibilitychange", () => {
+            if (!document.hidden && paused && !expired) {
+                paused = false;
+                poll();
+            }
+        });
+
+        // 渲染状态，返回 true 表示已到终态（跳转或失效）
+        const applyStatus = (data) => {
+            switch (data.status) {
+                case "CONFIRMED":
+                    const url = data.url;
+
+                    tip.innerText = "身份验证通过，正在跳转...";
+                    count.style.display = "none";
+                    btn.disabled = true;
+                    btn.style.background = "#28a745";
+                    setTimeout(() => (window.location.href = url), 600);
+                    return true;
+                case "SCANNED":
+                    tip.innerText = "二维码已扫描，请在手机端确认登录";
+                    break;
+                case "PENDING":
+                    tip.innerText = "等待扫描，请打开易识IT App 扫描二维码";
+                    break;
+                case "EXPIRED":
+                    expired = true;
+                    tip.innerText = "二维码已失效，请重新开始登录流程";
+                    count.style.display = "none";
+                    btn.innerText = "重新开始";
+                    btn.style.background = "#007bff";
+                    btn.onclick = () => {
+                        mask.remove();
+                        box.remove();
+                        qrBtn.click();
+                    };
+                    return true;
+                default:
+                    tip.innerText = "正在等待响应，请稍候...";
+            }
+            return false;
+        };
 
         const poll = async () => {
             if (expired) return;
             try {
-                const resp = await fetch(`${statusUrl}${statusUrl.includes('?') ? '&' : '?'}timestamp=${Math.floor(Date.now() / 1000)}`);
+                const pollUrl = waitUrl || statusUrl;
+                const sentAt = Date.now();
+                const last = waitUrl && lastStatus ? `&last=${lastStatus}` : "";
+                const headers = etag ? {"If-None-Match": etag} : {};
+                const resp = await fetch(`${pollUrl}${pollUrl.includes('?') ? '&' : '?'}timestamp=${Math.floor(sentAt / 1000)}${last}`, {headers});
                 // 检查HTTP状态码，处理404等情况
-                if (!resp.ok) {
+                if (resp.status !== 304 && !resp.ok) {
                     if (resp.status === 404) {
                         // 处理404错误，视为二维码失效
                         handleQRCodeExpired();
@@ -72,40 +158,13 @@ document.addEventListener("DOMContentLoaded", () => {
                     }
                 }
 
-                const data = await resp.json();
-
-
-                switch (data.status) {
-                    case "CONFIRMED":
-                        const url = data.url;
+                const data = resp.status === 304 ? {status: lastStatus} : await resp.json();
+                etag = resp.headers.get("ETag") || etag;
+                nextPoll = Number(resp.headers.get("X-Next-Poll-Ms")) || data.next_poll_ms || interval;
+                const changed = data.status !== lastStatus;
+                lastStatus = data.status;
 
-                        tip.innerText = "身份验证通过，正在跳转...";
-                        count.style.display = "none";
-                        btn.disabled = true;
-                        btn.style.background = "#28a745";
-                        setTimeout(() => (window.location.href = url), 600);
-                        return;
-                    case "SCANNED":
-                        tip.innerText = "二维码已扫描，请在手机端确认登录";
-                        break;
-                    case "PENDING":
-                        tip.innerText = "等待扫描，请打开易识IT App 扫描二维码";
-                        break;
-                    case "EXPIRED":
-                        expired = true;
-                        tip.innerText = "二维码已失效，请重新开始登录流程";
-                        count.style.display = "none";
-                        btn.innerText = "重新开始";
-                        btn.style.background = "#007bff";
-                        btn.onclick = () => {
-                            mask.remove();
-                            box.remove();
-                            qrBtn.click();
-                        };
-                        return;
-                    default:
-                        tip.innerText = "正在等待响应，请稍候...";
-                }
+                if (applyStatus(data)) return;
 
                 // 基于实际时间计算剩余时间
                 const now = Date.now();
@@ -113,7 +172,9 @@ document.addEventListener("DOMContentLoaded", () => {
 
                 if (remaining > 0) {
                     count.innerText = `二维码将在 ${Math.round(remaining)} 秒后失效`;
-                    setTimeout(poll, interval);
+                    // 长轮询返回即代表状态变化或服务端超时，可立即发起下一次；过快返回时按服务端建议的间隔
+                    const longPolled = waitUrl && (changed || Date.now() - sentAt >= interval);
+                    schedule(longPolled ? 0 : nextPoll);
                 } else {
                     expired = true;
                     tip.innerText = "二维码已失效，请重新开始登录流程";
@@ -132,7 +193,34 @@ document.addEventListener("DOMContentLoaded", () => {
                 console.error(err);
             }
         };
-        poll();
+
+        // 优先使用 SSE 推送状态，浏览器不支持或连接出错时改为轮询，不再重连 SSE；
+        // EventSource 拿不到 HTTP 状态码，由轮询请求识别 404 并按二维码失效处理
+        const listen = () => {
+            if (!eventsUrl || !window.EventSource) return false;
+            const es = new EventSource(`${eventsUrl}${eventsUrl.includes('?') ? '&' : '?'}timestamp=${Math.floor(Date.now() / 1000)}`);
+            es.addEventListener("status", (e) => {
+                const data = JSON.parse(e.data);
+                lastStatus = data.status;
+                if (applyStatus(data)) es.close();
+            });
+            es.onerror = () => {
+                es.close();
+                if (expired || lastStatus === "CONFIRMED") return;
+                poll();
+            };
+            return true;
+        };
+        if (!listen()) poll();
+        // 长轮询期间请求可能挂起数十秒，倒计时独立刷新
+        const countdown = setInterval(() => {
+            const remaining = Math.max(0, endTime - Date.now()) / 1000;
+            if (expired || remaining <= 0 || count.style.display === "none") {
+                clearInterval(countdown);
+                return;
+            }
+            count.innerText = `二维码将在 ${Math.round(remaining)} 秒后失效`;
+        }, 1000);
         const handleQRCodeExpired = () => {
             expired = true;
             tip.innerText = "二维码已失效，请重新开始登录流程";
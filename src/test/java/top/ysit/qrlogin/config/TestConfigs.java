@@ -0,0 +1,28 @@
+package top.ysit.qrlogin.config;
+
+import org.keycloak.models.IdentityProviderModel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 测试用配置：未指定的项取各 getter 的默认值
+ */
+public final class TestConfigs {
+
+    private TestConfigs() {
+    }
+
+    /**
+     * @param keyValues 依次为 key、value
+     */
+    public static QRLoginConfig of(String... keyValues) {
+        Map<String, String> config = new HashMap<>();
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            config.put(keyValues[i], keyValues[i + 1]);
+        }
+        IdentityProviderModel model = new IdentityProviderModel();
+        model.setConfig(config);
+        return new QRLoginConfig(model);
+    }
+}
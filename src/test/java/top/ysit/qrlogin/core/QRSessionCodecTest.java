@@ -0,0 +1,40 @@
+package top.ysit.qrlogin.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QRSessionCodecTest {
+
+    @Test
+    void roundTripsEveryField() {
+        QRSession s = QRSession.pending("id", "kc", "client", "tab", 1_000, 121_000)
+                .withStatus(QRSessionStatus.CONFIRMED)
+                .withEmail("用户@example.com")
+                .withResponseUrl("https://example.com/cb?x=" + "y".repeat(200));
+
+        QRSession decoded = QRSessionCodec.decodeFromString("id", QRSessionCodec.encodeToString(s));
+        assertEquals(s, decoded);
+        assertEquals(4, decoded.version());
+    }
+
+    @Test
+    void nullFieldsStayNull() {
+        QRSession s = QRSession.pending("id", "kc", null, null, 1, 2);
+        assertEquals(s, QRSessionCodec.decode("id", QRSessionCodec.encode(s)));
+    }
+
+    @Test
+    void firstByteIsTheStatusCode() {
+        byte[] encoded = QRSessionCodec.encode(QRSession.pending("id", "kc", "c", "t", 1, 2).withStatus(QRSessionStatus.SCANNED));
+        assertEquals(QRSessionStatus.SCANNED, QRSessionStatus.fromCode((char) encoded[0]));
+    }
+
+    @Test
+    void rejectsUnknownFormats() {
+        byte[] encoded = QRSessionCodec.encode(QRSession.pending("id", "kc", "c", "t", 1, 2));
+        encoded[1] = 1;
+        assertThrows(IllegalArgumentException.class, () -> QRSessionCodec.decode("id", encoded));
+        assertThrows(IllegalArgumentException.class, () -> QRSessionCodec.decode("id", new byte[10]));
+    }
+}
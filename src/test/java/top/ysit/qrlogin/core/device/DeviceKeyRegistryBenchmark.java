@@ -0,0 +1,91 @@
+package top.ysit.qrlogin.core.device;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import top.ysit.qrlogin.core.security.SignatureConfig;
+import top.ysit.qrlogin.core.security.SignatureUtil;
+import top.ysit.qrlogin.testsupport.Stubs;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 设备签名校验吞吐：每次确认都要在请求线程上验一次设备签名，对照共享 HMAC 校验
+ * <p>
+ * 运行：mvn test-compile exec:exec -Djmh.include=DeviceKeyRegistryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DeviceKeyRegistryBenchmark {
+
+    @Param({"Ed25519", "ES256"})
+    public String algorithm;
+
+    private final DeviceKeyRegistry registry = new DeviceKeyRegistry(1000);
+    private KeycloakSession session;
+    private Map<String, String> fields;
+    private String deviceSign;
+
+    private SignatureUtil hmac;
+    private Map<String, String> hmacParams;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519".equals(algorithm) ? "Ed25519" : "EC");
+        if (!"Ed25519".equals(algorithm)) {
+            generator.initialize(256);
+        }
+        KeyPair pair = generator.generateKeyPair();
+        String stored = algorithm + ":" + Base64.getEncoder().encodeToString(pair.getPublic().getEncoded());
+        UserModel user = Stubs.stub(UserModel.class, (method, args) -> switch (method) {
+            case "getId" -> "user-1";
+            case "isEnabled" -> true;
+            case "getFirstAttribute" -> stored;
+            default -> null;
+        });
+        UserProvider users = Stubs.stub(UserProvider.class, (method, args) -> "getUserById".equals(method) ? user : null);
+        session = Stubs.stub(KeycloakSession.class, (method, args) -> "users".equals(method) ? users : null);
+
+        String timestamp = String.valueOf(System.currentTimeMillis() / 1000);
+        fields = DeviceKeyRegistry.fields("user-1", "phone", "qr-session", "kc-session", timestamp);
+        Signature signer = Signature.getInstance("Ed25519".equals(algorithm) ? "Ed25519" : "SHA256withECDSA");
+        signer.initSign(pair.getPrivate());
+        signer.update(DeviceKeyRegistry.canonical("confirm", fields));
+        deviceSign = Base64.getUrlEncoder().withoutPadding().encodeToString(signer.sign());
+
+        // 时间窗口放宽到一小时，避免基准运行超过默认窗口后校验失败
+        hmac = new SignatureUtil(new SignatureConfig("benchmark-secret", SignatureConfig.SignatureAlgorithm.HMAC_SHA256, 3600));
+        hmacParams = new HashMap<>();
+        hmacParams.put("qr_session", "qr-session");
+        hmacParams.put("kc_session", "kc-session");
+        hmacParams.put("token", "header.payload.signature");
+        hmacParams.put("timestamp", timestamp);
+        hmacParams.put("sign", hmac.sign(hmacParams));
+    }
+
+    @Benchmark
+    public UserModel deviceSignature() throws SignatureException {
+        return registry.verify(session, null, "confirm", fields, deviceSign);
+    }
+
+    @Benchmark
+    public boolean sharedHmac() throws SignatureException {
+        return hmac.verify(hmacParams);
+    }
+}
@@ -0,0 +1,76 @@
+package top.ysit.qrlogin.core.device;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import top.ysit.qrlogin.testsupport.Stubs;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceKeyRegistryTest {
+    private final Map<String, String> attributes = new HashMap<>();
+    private final UserModel user = Stubs.stub(UserModel.class, (method, args) -> switch (method) {
+        case "getId" -> "user-1";
+        case "isEnabled" -> true;
+        case "getFirstAttribute" -> attributes.get((String) args[0]);
+        case "setSingleAttribute" -> attributes.put((String) args[0], (String) args[1]);
+        default -> null;
+    });
+    private final UserProvider users = Stubs.stub(UserProvider.class, (method, args) -> "getUserById".equals(method) ? user : null);
+    private final KeycloakSession session = Stubs.stub(KeycloakSession.class, (method, args) -> "users".equals(method) ? users : null);
+    private final DeviceKeyRegistry registry = new DeviceKeyRegistry(10);
+
+    @Test
+    void verifiesSignaturesFromTheRegisteredKey() throws Exception {
+        KeyPair pair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+        assertFalse(registry.isRegistered(user, "phone"));
+        registry.register(user, "phone", "Ed25519", encode(pair));
+        assertTrue(registry.isRegistered(user, "phone"));
+
+        Map<String, String> fields = DeviceKeyRegistry.fields("user-1", "phone", "qr", "kc", "1700000000");
+        assertSame(user, registry.verify(session, null, "confirm", fields, sign(pair.getPrivate(), "confirm", fields)));
+    }
+
+    @Test
+    void rejectsReplacementSignedByAnotherKey() throws Exception {
+        KeyPair current = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+        KeyPair attacker = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+        registry.register(user, "phone", "Ed25519", encode(current));
+
+        Map<String, String> fields = DeviceKeyRegistry.registerFields("user-1", "phone", "Ed25519", encode(attacker), "1700000000");
+        assertThrows(SignatureException.class,
+                () -> registry.verify(session, null, "register", fields, sign(attacker.getPrivate(), "register", fields)));
+        assertSame(user, registry.verify(session, null, "register", fields, sign(current.getPrivate(), "register", fields)));
+    }
+
+    @Test
+    void signatureForOneActionDoesNotVerifyAnother() throws Exception {
+        KeyPair pair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+        registry.register(user, "phone", "Ed25519", encode(pair));
+
+        Map<String, String> fields = DeviceKeyRegistry.fields("user-1", "phone", "qr", "kc", "1700000000");
+        String scanSign = sign(pair.getPrivate(), "scan", fields);
+        assertThrows(SignatureException.class, () -> registry.verify(session, null, "confirm", fields, scanSign));
+    }
+
+    private static String encode(KeyPair pair) {
+        return Base64.getEncoder().encodeToString(pair.getPublic().getEncoded());
+    }
+
+    private static String sign(PrivateKey key, String action, Map<String, String> fields) throws Exception {
+        Signature signer = Signature.getInstance("Ed25519");
+        signer.initSign(key);
+        signer.update(DeviceKeyRegistry.canonical(action, fields));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(signer.sign());
+    }
+}
@@ -0,0 +1,69 @@
+package top.ysit.qrlogin.core.notify;
+
+import org.junit.jupiter.api.Test;
+import top.ysit.qrlogin.core.QRSessionStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatusWaitersTest {
+    private final StatusWaiters waiters = new StatusWaiters();
+
+    @Test
+    void wakesEachWaiterOnceOnStatusChange() {
+        AtomicInteger woken = new AtomicInteger();
+        waiters.await("s1", 60_000, woken::incrementAndGet);
+        waiters.await("s1", 60_000, woken::incrementAndGet);
+
+        waiters.onStatusChanged("s1", QRSessionStatus.SCANNED);
+        waiters.onStatusChanged("s1", QRSessionStatus.CONFIRMED);
+
+        assertEquals(2, woken.get());
+        assertEquals(0, waiters.size());
+    }
+
+    @Test
+    void waiterRegisteredDuringConcurrentChurnIsStillWoken() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 200; round++) {
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> churn = new ArrayList<>();
+                for (int t = 0; t < 3; t++) {
+                    churn.add(pool.submit(() -> {
+                        start.await();
+                        for (int i = 0; i < 50; i++) {
+                            waiters.await("s1", 60_000, () -> {
+                            }).cancel();
+                        }
+                        return null;
+                    }));
+                }
+                CountDownLatch woken = new CountDownLatch(1);
+                Future<StatusWaiters.Waiter> late = pool.submit(() -> {
+                    start.await();
+                    return waiters.await("s1", 60_000, woken::countDown);
+                });
+                start.countDown();
+                late.get(5, TimeUnit.SECONDS);
+                for (Future<?> f : churn) {
+                    f.get(5, TimeUnit.SECONDS);
+                }
+
+                waiters.onStatusChanged("s1", QRSessionStatus.SCANNED);
+                assertTrue(woken.await(1, TimeUnit.SECONDS), "round " + round);
+                assertEquals(0, waiters.size());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
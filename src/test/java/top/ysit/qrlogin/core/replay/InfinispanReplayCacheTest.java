@@ -0,0 +1,59 @@
+package top.ysit.qrlogin.core.replay;
+
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.config.TestConfigs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 防重放缓存的缓存模式：单机容器为 LOCAL，集群容器按 infinispanOwners 分布
+ */
+class InfinispanReplayCacheTest {
+    private final QRLoginConfig cfg = TestConfigs.of("infinispanOwners", "2");
+    private final List<EmbeddedCacheManager> managers = new ArrayList<>();
+
+    @AfterEach
+    void stop() {
+        managers.forEach(EmbeddedCacheManager::stop);
+    }
+
+    @Test
+    void localContainerUsesLocalCacheAndRejectsReplays() {
+        EmbeddedCacheManager manager = start(new GlobalConfigurationBuilder().nonClusteredDefault());
+        InfinispanReplayCache cache = new InfinispanReplayCache(manager, cfg);
+        long now = System.currentTimeMillis() / 1000;
+
+        assertEquals(CacheMode.LOCAL, manager.getCacheConfiguration(InfinispanReplayCache.CACHE_NAME).clustering().cacheMode());
+        assertTrue(cache.firstSeen("scan", "sig", now));
+        assertFalse(cache.firstSeen("scan", "sig", now));
+        assertTrue(cache.firstSeen("confirm", "sig", now));
+    }
+
+    @Test
+    void clusteredContainerUsesDistributedCacheWithConfiguredOwners() {
+        GlobalConfigurationBuilder global = GlobalConfigurationBuilder.defaultClusteredBuilder();
+        global.transport().clusterName("qrlogin-replay-test").nodeName("a")
+                .addProperty("configurationFile", "jgroups-test.xml");
+        EmbeddedCacheManager manager = start(global);
+        new InfinispanReplayCache(manager, cfg);
+
+        var clustering = manager.getCacheConfiguration(InfinispanReplayCache.CACHE_NAME).clustering();
+        assertEquals(CacheMode.DIST_SYNC, clustering.cacheMode());
+        assertEquals(2, clustering.hash().numOwners());
+    }
+
+    private EmbeddedCacheManager start(GlobalConfigurationBuilder global) {
+        EmbeddedCacheManager manager = new DefaultCacheManager(global.build());
+        managers.add(manager);
+        return manager;
+    }
+}
@@ -0,0 +1,63 @@
+package top.ysit.qrlogin.core.replay;
+
+import com.github.fppt.jedismock.RedisServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import top.ysit.qrlogin.config.TestConfigs;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 防重放登记吞吐：每次扫码/确认都要登记一次签名，对照进程内缓存和 Redis（jedis-mock 进程内服务端）
+ * <p>
+ * 运行：mvn test-compile exec:exec -Djmh.include=ReplayCacheBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class ReplayCacheBenchmark {
+
+    @Param({"local", "redis"})
+    public String type;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private RedisServer server;
+    private ReplayCache cache;
+
+    @Setup
+    public void setUp() throws IOException {
+        if ("redis".equals(type)) {
+            server = RedisServer.newRedisServer().start();
+            cache = new RedisReplayCache(TestConfigs.of("redisUri", "redis://" + server.getHost() + ":" + server.getBindPort(),
+                    "redisNamespace", "bench:", "timeWindowSeconds", "3600"));
+        } else {
+            cache = new LocalReplayCache(3600, 1_000_000);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (cache instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Benchmark
+    public boolean firstSeen() {
+        return cache.firstSeen("scan", Long.toString(sequence.incrementAndGet()), System.currentTimeMillis() / 1000);
+    }
+}
@@ -0,0 +1,53 @@
+package top.ysit.qrlogin.core.resilience;
+
+import org.junit.jupiter.api.Test;
+import top.ysit.qrlogin.core.resilience.exception.CallRejectedException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkheadTest {
+    private final Bulkhead bulkhead = new Bulkhead("test", 1, 50);
+
+    @Test
+    void rejectsWhenSaturatedAndRecoversAfterRelease() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> holder = CompletableFuture.supplyAsync(() -> bulkhead.call(() -> {
+            started.countDown();
+            await(release);
+            return "first";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, bulkhead.inFlight());
+
+        long begin = System.nanoTime();
+        CallRejectedException rejected = assertThrows(CallRejectedException.class, () -> bulkhead.call(() -> "second"));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) >= 40, "waits up to maxWaitMs before rejecting");
+        assertTrue(rejected.getRetryAfterSeconds() >= 1);
+
+        release.countDown();
+        assertEquals("first", holder.get(5, TimeUnit.SECONDS));
+        assertEquals(0, bulkhead.inFlight());
+        assertEquals("third", bulkhead.call(() -> "third"));
+    }
+
+    @Test
+    void releasesPermitWhenTaskThrows() {
+        assertThrows(IllegalStateException.class, () -> bulkhead.call(() -> {
+            throw new IllegalStateException("boom");
+        }));
+        assertEquals(0, bulkhead.inFlight());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
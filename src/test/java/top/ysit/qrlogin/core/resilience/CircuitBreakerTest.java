@@ -0,0 +1,72 @@
+package top.ysit.qrlogin.core.resilience;
+
+import org.junit.jupiter.api.Test;
+import top.ysit.qrlogin.core.resilience.exception.CallRejectedException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+    private static final long OPEN_MS = 100;
+
+    private final CircuitBreaker breaker = new CircuitBreaker("test", 2, OPEN_MS);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void opensAfterConsecutiveFailuresAndClosesOnSuccessfulProbe() throws Exception {
+        assertFalse(call(false));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertFalse(call(false));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // 打开期间直接拒绝，不执行调用
+        assertThrows(CallRejectedException.class, () -> call(true));
+        assertEquals(2, calls.get());
+
+        Thread.sleep(OPEN_MS + 20);
+        assertTrue(call(true));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void failedProbeReopens() throws Exception {
+        call(false);
+        call(false);
+        Thread.sleep(OPEN_MS + 20);
+
+        assertFalse(call(false));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CallRejectedException.class, () -> call(true));
+    }
+
+    @Test
+    void onlyOneProbeIsAdmittedWhileHalfOpen() throws Exception {
+        call(false);
+        call(false);
+        Thread.sleep(OPEN_MS + 20);
+
+        breaker.call(() -> {
+            assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+            assertThrows(CallRejectedException.class, () -> call(true));
+            return true;
+        }, ok -> !ok);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        call(false);
+        call(true);
+        call(false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private boolean call(boolean succeed) {
+        return breaker.call(() -> {
+            calls.incrementAndGet();
+            return succeed;
+        }, ok -> !ok);
+    }
+}
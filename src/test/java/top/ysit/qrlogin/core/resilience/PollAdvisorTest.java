@@ -0,0 +1,50 @@
+package top.ysit.qrlogin.core.resilience;
+
+import org.junit.jupiter.api.Test;
+import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.config.TestConfigs;
+import top.ysit.qrlogin.core.QRSessionStatus;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PollAdvisorTest {
+    private final PollAdvisor advisor = new PollAdvisor();
+
+    @Test
+    void pendingBacksOffButStaysInsideTheCallbackWindow() {
+        QRLoginConfig cfg = TestConfigs.of();
+        // 默认 5 秒窗口：5000 - 600 - 1000 = 3400，向下取整到 3250
+        assertEquals(3250, PollAdvisor.maxIntervalMs(cfg));
+        assertEquals(1500, advisor.nextPollMs(cfg, QRSessionStatus.PENDING, 0, 0, false));
+        assertEquals(3000, advisor.nextPollMs(cfg, QRSessionStatus.PENDING, 0, 30_000, false));
+        assertEquals(3250, advisor.nextPollMs(cfg, QRSessionStatus.PENDING, 0, 120_000, true));
+    }
+
+    @Test
+    void widerWindowAllowsTheConfiguredMaximum() {
+        QRLoginConfig cfg = TestConfigs.of("timeWindowSeconds", "30");
+        assertEquals(6000, advisor.nextPollMs(cfg, QRSessionStatus.PENDING, 0, 120_000, false));
+    }
+
+    @Test
+    void inFlightRequestsAboveThresholdSlowPendingPolls() {
+        QRLoginConfig cfg = TestConfigs.of("pollBusyThreshold", "1", "timeWindowSeconds", "30");
+        advisor.enter();
+        advisor.enter();
+        try {
+            assertEquals(3000, advisor.nextPollMs(cfg, QRSessionStatus.PENDING, 0, 0, false));
+            assertEquals(500, advisor.nextPollMs(cfg, QRSessionStatus.SCANNED, 0, 0, false));
+        } finally {
+            advisor.exit();
+            advisor.exit();
+        }
+        assertEquals(1500, advisor.nextPollMs(cfg, QRSessionStatus.PENDING, 0, 0, false));
+    }
+
+    @Test
+    void terminalStatesHaveNoHint() {
+        QRLoginConfig cfg = TestConfigs.of();
+        assertEquals(0, advisor.nextPollMs(cfg, QRSessionStatus.CONFIRMED, 0, 0, false));
+        assertEquals(0, advisor.nextPollMs(cfg, QRSessionStatus.EXPIRED, 0, 0, false));
+    }
+}
@@ -0,0 +1,61 @@
+package top.ysit.qrlogin.core.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.SignatureException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SignatureUtilTest {
+    private static final long NOW = System.currentTimeMillis() / 1000;
+
+    @Test
+    void expiredActiveKeyFallsBackToTheNewestValidKey() throws SignatureException {
+        SignatureUtil util = new SignatureUtil(config("old", List.of(
+                new SigningKey("old", "s1", NOW - 7200, NOW - 60),
+                new SigningKey("current", "s2", NOW - 3600, 0),
+                new SigningKey("newer", "s3", NOW - 600, 0),
+                new SigningKey("future", "s4", NOW + 3600, 0))));
+
+        assertEquals("newer", util.getActiveKid());
+        Map<String, String> params = params();
+        params.put("sign", util.sign(params));
+        params.put("kid", util.getActiveKid());
+        assertTrue(util.verify(params));
+    }
+
+    @Test
+    void validActiveKeyIsKept() throws SignatureException {
+        SignatureUtil util = new SignatureUtil(config("current", List.of(
+                new SigningKey("newer", "s1", NOW - 60, 0),
+                new SigningKey("current", "s2", NOW - 3600, NOW + 3600))));
+
+        assertEquals("current", util.getActiveKid());
+    }
+
+    @Test
+    void keyringWithNoValidKeyIsRejected() {
+        SignatureConfig config = config("old", List.of(
+                new SigningKey("old", "s1", 0, NOW - 60),
+                new SigningKey("future", "s2", NOW + 3600, 0)));
+
+        assertThrows(SignatureException.class, () -> new SignatureUtil(config));
+    }
+
+    private static SignatureConfig config(String activeKid, List<SigningKey> keys) {
+        SignatureConfig config = new SignatureConfig("unused", SignatureConfig.SignatureAlgorithm.HMAC_SHA256, 5);
+        config.setKeys(keys);
+        config.setActiveKid(activeKid);
+        return config;
+    }
+
+    private static Map<String, String> params() {
+        Map<String, String> params = new HashMap<>();
+        params.put("qr_session", "qr");
+        params.put("timestamp", String.valueOf(NOW));
+        return params;
+    }
+}
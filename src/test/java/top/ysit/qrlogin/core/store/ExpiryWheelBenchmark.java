@@ -0,0 +1,82 @@
+package top.ysit.qrlogin.core.store;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import top.ysit.qrlogin.core.QRSession;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 10 万存活会话下一次过期清理的 CPU 开销：时间轮只处理到期槽位，对照逐个检查全部会话的全表扫描。
+ * <p>
+ * 会话到期时间均匀分布在一个 TTL 内，每次操作模拟时钟前进一个 tick，到期会话立即以新的到期时间续上，
+ * 存活会话数保持不变。
+ * <p>
+ * 运行：mvn test-compile exec:exec -Djmh.include=ExpiryWheelBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExpiryWheelBenchmark {
+    private static final long TICK_MS = 250;
+    private static final long TTL_MS = 120_000;
+
+    @Param({"100000"})
+    public int sessions;
+
+    private final ConcurrentMap<String, QRSession> map = new ConcurrentHashMap<>();
+    private ExpiryWheel wheel;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        now = System.currentTimeMillis();
+        wheel = new ExpiryWheel(TICK_MS, TTL_MS, now);
+        for (int i = 0; i < sessions; i++) {
+            String id = "session-" + i;
+            long expireAt = now + 1 + TTL_MS * i / sessions;
+            map.put(id, QRSession.pending(id, "kc-" + i, "client", "tab", now, expireAt));
+            wheel.schedule(id, expireAt);
+        }
+    }
+
+    @Benchmark
+    public int wheelTick() {
+        now += TICK_MS;
+        int[] renewed = {0};
+        wheel.advance(now, id -> {
+            wheel.schedule(id, renew(id).expireAt());
+            renewed[0]++;
+        });
+        return renewed[0];
+    }
+
+    @Benchmark
+    public int fullScanTick() {
+        now += TICK_MS;
+        int renewed = 0;
+        for (Map.Entry<String, QRSession> e : map.entrySet()) {
+            if (e.getValue().isExpired(now)) {
+                renew(e.getKey());
+                renewed++;
+            }
+        }
+        return renewed;
+    }
+
+    private QRSession renew(String id) {
+        QRSession s = map.get(id);
+        QRSession next = QRSession.pending(id, s.kcSessionId(), s.clientId(), s.tabId(), now, now + TTL_MS);
+        map.put(id, next);
+        return next;
+    }
+}
@@ -0,0 +1,64 @@
+package top.ysit.qrlogin.core.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpiryWheelTest {
+    private static final long TICK = 10;
+
+    @Test
+    void firesOnTheTickAfterExpiry() {
+        ExpiryWheel wheel = new ExpiryWheel(TICK, 1_000, 0);
+        List<String> fired = new ArrayList<>();
+        wheel.schedule("a", 55);
+
+        wheel.advance(50, fired::add);
+        assertTrue(fired.isEmpty());
+        wheel.advance(60, fired::add);
+        assertEquals(List.of("a"), fired);
+    }
+
+    @Test
+    void entriesBeyondTheSpanWaitForTheirOwnRevolution() {
+        ExpiryWheel wheel = new ExpiryWheel(TICK, 100, 0);
+        List<String> fired = new ArrayList<>();
+        wheel.schedule("late", 5_000);
+
+        wheel.advance(4_990, fired::add);
+        assertTrue(fired.isEmpty());
+        wheel.advance(5_000, fired::add);
+        assertEquals(List.of("late"), fired);
+    }
+
+    @Test
+    void pastDueEntriesScheduledDuringAdvanceFireOnTheNextAdvance() throws Exception {
+        ExpiryWheel wheel = new ExpiryWheel(TICK, 1_000, 0);
+        Set<String> fired = ConcurrentHashMap.newKeySet();
+        AtomicLong now = new AtomicLong();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread advancer = new Thread(() -> {
+            while (running.get()) {
+                wheel.advance(now.addAndGet(TICK), fired::add);
+            }
+        });
+        advancer.start();
+        int scheduled = 0;
+        for (long deadline = System.currentTimeMillis() + 300; System.currentTimeMillis() < deadline; scheduled++) {
+            wheel.schedule("s" + scheduled, 0);
+        }
+        running.set(false);
+        advancer.join();
+
+        // 已过期的登记最迟在下一次推进时到期，不会落到刚处理完的槽位上等满一圈
+        wheel.advance(now.addAndGet(TICK), fired::add);
+        assertEquals(scheduled, fired.size());
+    }
+}
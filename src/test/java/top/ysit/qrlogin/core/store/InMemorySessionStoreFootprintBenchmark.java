@@ -0,0 +1,79 @@
+package top.ysit.qrlogin.core.store;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.IterationParams;
+import top.ysit.qrlogin.config.TestConfigs;
+import top.ysit.qrlogin.core.QRSession;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内存存储每 10 万个 PENDING 会话的常驻堆占用：填满一个新 store 前后各做一次 GC，
+ * 以辅助计数器 retainedBytes 报告差值，包含会话记录、map、淘汰队列、浏览器索引和时间轮条目。
+ * <p>
+ * 运行：mvn test-compile exec:exec -Djmh.include=InMemorySessionStoreFootprintBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InMemorySessionStoreFootprintBenchmark {
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    @Param({"100000"})
+    public int sessions;
+
+    private InMemorySessionStore store;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long retainedBytes;
+        // JMH 按迭代累加 EVENTS 计数器，每次上报除以测量迭代数，汇总值即为各迭代的平均
+        private int iterations;
+
+        @Setup(Level.Iteration)
+        public void reset(IterationParams params) {
+            retainedBytes = 0;
+            iterations = params.getCount();
+        }
+
+        void record(long bytes) {
+            retainedBytes = bytes / iterations;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        store = new InMemorySessionStore(TestConfigs.of("maxSessions", String.valueOf(sessions * 2), "sessionTtlSeconds", "3600"));
+    }
+
+    @Benchmark
+    public InMemorySessionStore fill(Footprint footprint) {
+        long before = usedAfterGc();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < sessions; i++) {
+            store.put(QRSession.pending(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "account-console",
+                    "tab-" + i, now, now + TimeUnit.HOURS.toMillis(1)));
+        }
+        footprint.record(usedAfterGc() - before);
+        return store;
+    }
+
+    private static long usedAfterGc() {
+        System.gc();
+        System.gc();
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+}
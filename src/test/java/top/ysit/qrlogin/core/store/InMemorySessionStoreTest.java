@@ -0,0 +1,84 @@
+package top.ysit.qrlogin.core.store;
+
+import org.junit.jupiter.api.Test;
+import top.ysit.qrlogin.config.TestConfigs;
+import top.ysit.qrlogin.core.QRSession;
+import top.ysit.qrlogin.core.QRSessionStatus;
+import top.ysit.qrlogin.core.store.exception.StoreSaturatedException;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 容量满时的淘汰顺序：先判断容量，再让同一浏览器的旧二维码失效
+ */
+class InMemorySessionStoreTest {
+    private final InMemorySessionStore store = new InMemorySessionStore(
+            TestConfigs.of("maxSessions", "2", "maxSessionsPerBrowser", "1"));
+
+    @Test
+    void rejectedPutLeavesExistingSessionsUntouched() {
+        QRSession a = put("browser-a");
+        QRSession b = put("browser-b");
+        store.setScanned(a.sessionId());
+        store.setScanned(b.sessionId());
+
+        // 已扫码的会话不可淘汰，新浏览器被拒绝，已有会话不受影响
+        assertThrows(StoreSaturatedException.class, () -> put("browser-c"));
+        assertTrue(store.isSaturated());
+        assertEquals(QRSessionStatus.SCANNED, store.get(a.sessionId()).status());
+        assertEquals(QRSessionStatus.SCANNED, store.get(b.sessionId()).status());
+    }
+
+    @Test
+    void fullStoreStillLetsABrowserReplaceItsOwnPendingCode() {
+        QRSession old = put("browser-a");
+        QRSession other = put("browser-b");
+        store.setScanned(other.sessionId());
+
+        QRSession fresh = put("browser-a");
+
+        assertNull(store.get(old.sessionId()));
+        assertEquals(QRSessionStatus.PENDING, store.get(fresh.sessionId()).status());
+        assertFalse(store.isSaturated());
+    }
+
+    @Test
+    void transitionsOnlyFollowPendingScannedConfirmed() {
+        QRSession s = put("browser-a");
+
+        // 未扫码不能直接确认
+        store.confirm(s.sessionId(), "alice", "https://example.com/cb");
+        assertEquals(QRSessionStatus.PENDING, store.get(s.sessionId()).status());
+        assertNull(store.get(s.sessionId()).responseUrl());
+
+        store.setScanned(s.sessionId());
+        store.confirm(s.sessionId(), "alice", "https://example.com/cb");
+        QRSession confirmed = store.get(s.sessionId());
+        assertEquals(QRSessionStatus.CONFIRMED, confirmed.status());
+        assertEquals("https://example.com/cb", confirmed.responseUrl());
+
+        // 已确认的会话不会回到 SCANNED
+        store.setScanned(s.sessionId());
+        assertEquals(QRSessionStatus.CONFIRMED, store.get(s.sessionId()).status());
+    }
+
+    @Test
+    void expiredSessionCannotBeScannedOrConfirmed() {
+        QRSession s = put("browser-a");
+        store.expire(s.sessionId());
+
+        store.setScanned(s.sessionId());
+        assertEquals(QRSessionStatus.EXPIRED, store.get(s.sessionId()).status());
+        store.setConfirmed(s.sessionId(), "alice");
+        assertEquals(QRSessionStatus.EXPIRED, store.get(s.sessionId()).status());
+    }
+
+    private QRSession put(String browser) {
+        long now = System.currentTimeMillis();
+        QRSession s = QRSession.pending(UUID.randomUUID().toString(), browser, "client", "tab", now, now + 60_000);
+        store.put(s);
+        return s;
+    }
+}
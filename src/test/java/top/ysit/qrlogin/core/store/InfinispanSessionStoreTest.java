@@ -0,0 +1,144 @@
+package top.ysit.qrlogin.core.store;
+
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.config.TestConfigs;
+import top.ysit.qrlogin.core.QRSession;
+import top.ysit.qrlogin.core.QRSessionStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 两个进程内 cache manager 组成的集群，验证跨节点读写、条件迁移和状态通知
+ */
+class InfinispanSessionStoreTest {
+    private final QRLoginConfig cfg = TestConfigs.of("infinispanOwners", "2", "sessionTtlSeconds", "60");
+    private final List<EmbeddedCacheManager> managers = new ArrayList<>();
+
+    @AfterEach
+    void stop() {
+        managers.forEach(EmbeddedCacheManager::stop);
+    }
+
+    @Test
+    void localContainerUsesLocalCache() {
+        EmbeddedCacheManager manager = start(new GlobalConfigurationBuilder().nonClusteredDefault());
+        new InfinispanSessionStore(manager, cfg);
+
+        assertEquals(CacheMode.LOCAL, manager.getCacheConfiguration(InfinispanSessionStore.CACHE_NAME).clustering().cacheMode());
+    }
+
+    @Test
+    void clusteredContainerUsesDistributedCacheWithConfiguredOwners() {
+        EmbeddedCacheManager manager = startClustered("a");
+        new InfinispanSessionStore(manager, cfg);
+
+        var clustering = manager.getCacheConfiguration(InfinispanSessionStore.CACHE_NAME).clustering();
+        assertEquals(CacheMode.DIST_SYNC, clustering.cacheMode());
+        assertEquals(2, clustering.hash().numOwners());
+    }
+
+    @Test
+    void transitionsOnOneNodeAreVisibleAndNotifiedOnTheOther() throws Exception {
+        InfinispanSessionStore a = new InfinispanSessionStore(startClustered("a"), cfg);
+        InfinispanSessionStore b = new InfinispanSessionStore(startClustered("b"), cfg);
+        BlockingQueue<QRSessionStatus> seenOnA = new LinkedBlockingQueue<>();
+        a.addListener((id, status) -> seenOnA.add(status));
+
+        String id = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        a.put(QRSession.pending(id, "kc", "client", "tab", now, now + 60_000));
+        b.setScanned(id);
+        b.confirm(id, "user@example.com", "https://example.com/cb");
+
+        QRSession seen = a.get(id);
+        assertEquals(QRSessionStatus.CONFIRMED, seen.status());
+        assertEquals("user@example.com", seen.email());
+        assertEquals("https://example.com/cb", seen.responseUrl());
+        assertEquals(QRSessionStatus.SCANNED, seenOnA.poll(5, TimeUnit.SECONDS));
+        assertEquals(QRSessionStatus.CONFIRMED, seenOnA.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void writesThatKeepTheStatusDoNotNotify() throws Exception {
+        InfinispanSessionStore a = new InfinispanSessionStore(startClustered("a"), cfg);
+        InfinispanSessionStore b = new InfinispanSessionStore(startClustered("b"), cfg);
+        BlockingQueue<QRSessionStatus> seenOnA = new LinkedBlockingQueue<>();
+        a.addListener((id, status) -> seenOnA.add(status));
+
+        String id = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        a.put(QRSession.pending(id, "kc", "client", "tab", now, now + 60_000));
+        b.setScanned(id);
+        b.setResponseUrl(id, "https://example.com/cb");
+        b.confirm(id, "user@example.com", null);
+
+        // confirm 先改状态再写邮箱，只有状态变化产生通知
+        assertEquals(QRSessionStatus.SCANNED, seenOnA.poll(5, TimeUnit.SECONDS));
+        assertEquals(QRSessionStatus.CONFIRMED, seenOnA.poll(5, TimeUnit.SECONDS));
+        assertNull(seenOnA.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void concurrentConfirmsFromBothNodesSucceedOnce() throws Exception {
+        InfinispanSessionStore a = new InfinispanSessionStore(startClustered("a"), cfg);
+        InfinispanSessionStore b = new InfinispanSessionStore(startClustered("b"), cfg);
+        String id = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        a.put(QRSession.pending(id, "kc", "client", "tab", now, now + 60_000));
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger confirmed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            for (InfinispanSessionStore store : List.of(a, b)) {
+                pool.submit(() -> {
+                    start.await();
+                    store.setScanned(id);
+                    store.confirm(id, store == a ? "a@example.com" : "b@example.com", null);
+                    if (store.get(id).email().startsWith(store == a ? "a" : "b")) confirmed.incrementAndGet();
+                    return null;
+                });
+            }
+            start.countDown();
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+
+        QRSession s = b.get(id);
+        assertEquals(QRSessionStatus.CONFIRMED, s.status());
+        // 只有一个节点的确认写入成功，另一个节点看到的是对方的邮箱
+        assertEquals(1, confirmed.get());
+    }
+
+    private EmbeddedCacheManager startClustered(String node) {
+        GlobalConfigurationBuilder global = GlobalConfigurationBuilder.defaultClusteredBuilder();
+        global.transport().clusterName("qrlogin-test").nodeName(node)
+                .addProperty("configurationFile", "jgroups-test.xml");
+        return start(global);
+    }
+
+    private EmbeddedCacheManager start(GlobalConfigurationBuilder global) {
+        EmbeddedCacheManager manager = new DefaultCacheManager(global.build());
+        managers.add(manager);
+        return manager;
+    }
+}
@@ -0,0 +1,45 @@
+package top.ysit.qrlogin.core.store;
+
+import org.junit.jupiter.api.Test;
+import top.ysit.qrlogin.config.TestConfigs;
+import top.ysit.qrlogin.core.QRSession;
+import top.ysit.qrlogin.core.QRSessionStatus;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearCachingSessionStoreTest {
+    private final InMemorySessionStore delegate = new InMemorySessionStore(TestConfigs.of());
+
+    @Test
+    void invalidationIsVisibleOnTheNextRead() {
+        NearCachingSessionStore store = new NearCachingSessionStore(delegate, 60_000, 100);
+        QRSession s = put(store);
+        assertEquals(QRSessionStatus.PENDING, store.get(s.sessionId()).status());
+
+        store.setScanned(s.sessionId());
+        assertEquals(QRSessionStatus.SCANNED, store.get(s.sessionId()).status());
+    }
+
+    @Test
+    void tombstonesExpireWithoutReachingTheEntryLimit() throws InterruptedException {
+        NearCachingSessionStore store = new NearCachingSessionStore(delegate, 0, 100_000);
+        for (int i = 0; i < 50; i++) {
+            store.onStatusChanged(UUID.randomUUID().toString(), QRSessionStatus.EXPIRED);
+        }
+        assertEquals(50, store.nearSize());
+
+        // 下一次失效在清扫间隔之后触发清扫，只留下自己的失效标记
+        Thread.sleep(1100);
+        store.onStatusChanged(UUID.randomUUID().toString(), QRSessionStatus.EXPIRED);
+        assertEquals(1, store.nearSize());
+    }
+
+    private QRSession put(NearCachingSessionStore store) {
+        long now = System.currentTimeMillis();
+        QRSession s = QRSession.pending(UUID.randomUUID().toString(), "kc", "client", "tab", now, now + 60_000);
+        store.put(s);
+        return s;
+    }
+}
@@ -0,0 +1,123 @@
+package top.ysit.qrlogin.core.store;
+
+import com.github.fppt.jedismock.RedisServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import top.ysit.qrlogin.config.TestConfigs;
+import top.ysit.qrlogin.core.QRSession;
+import top.ysit.qrlogin.core.QRSessionStatus;
+import top.ysit.qrlogin.core.SessionStore;
+import top.ysit.qrlogin.core.notify.LocalStatusNotifier;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 连接进程内 Redis 服务端，验证 Lua 状态迁移脚本
+ */
+class RedisSessionStoreTest {
+    private RedisServer server;
+    private RedisSessionStore store;
+    private final List<QRSessionStatus> events = new ArrayList<>();
+
+    @BeforeEach
+    void start() throws IOException {
+        server = RedisServer.newRedisServer().start();
+        store = new RedisSessionStore(TestConfigs.of("redisUri", "redis://" + server.getHost() + ":" + server.getBindPort(),
+                "redisNamespace", "test:"), new LocalStatusNotifier());
+        store.addListener((id, status) -> events.add(status));
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        store.close();
+        server.stop();
+    }
+
+    @Test
+    void roundTripsAllFields() {
+        QRSession s = pending();
+        store.put(s);
+
+        assertEquals(s, store.get(s.sessionId()));
+        assertNull(store.get("missing"));
+    }
+
+    @Test
+    void confirmWritesStatusUserAndUrlTogether() {
+        QRSession s = pending();
+        store.put(s);
+        store.setScanned(s.sessionId());
+        store.confirm(s.sessionId(), "user@example.com", "https://example.com/cb");
+
+        QRSession confirmed = store.get(s.sessionId());
+        assertEquals(QRSessionStatus.CONFIRMED, confirmed.status());
+        assertEquals("user@example.com", confirmed.email());
+        assertEquals("https://example.com/cb", confirmed.responseUrl());
+        assertEquals(3, confirmed.version());
+        assertEquals(List.of(QRSessionStatus.SCANNED, QRSessionStatus.CONFIRMED), events);
+    }
+
+    @Test
+    void confirmBeforeScanWritesNothing() {
+        QRSession s = pending();
+        store.put(s);
+        store.confirm(s.sessionId(), "user@example.com", "https://example.com/cb");
+
+        QRSession unchanged = store.get(s.sessionId());
+        assertEquals(QRSessionStatus.PENDING, unchanged.status());
+        assertNull(unchanged.email());
+        assertNull(unchanged.responseUrl());
+        assertEquals(s.version(), unchanged.version());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void secondConfirmDoesNotOverwriteTheFirst() {
+        QRSession s = pending();
+        store.put(s);
+        store.setScanned(s.sessionId());
+        store.confirm(s.sessionId(), "first@example.com", "https://example.com/first");
+        store.confirm(s.sessionId(), "second@example.com", "https://example.com/second");
+
+        QRSession confirmed = store.get(s.sessionId());
+        assertEquals("first@example.com", confirmed.email());
+        assertEquals("https://example.com/first", confirmed.responseUrl());
+    }
+
+    @Test
+    void stampReadsVersionAndStatusOnly() {
+        QRSession s = pending();
+        store.put(s);
+        store.setScanned(s.sessionId());
+
+        SessionStore.Stamp stamp = store.stamp(s.sessionId(), "kc", System.currentTimeMillis());
+        assertEquals(new SessionStore.Stamp(2, QRSessionStatus.SCANNED, s.createdAt()), stamp);
+        assertNull(store.stamp(s.sessionId(), "other-browser", System.currentTimeMillis()));
+        assertNull(store.stamp(s.sessionId(), "kc", s.expireAt()));
+    }
+
+    @Test
+    void expireAndDelete() {
+        QRSession s = pending();
+        store.put(s);
+        store.expire(s.sessionId());
+        assertEquals(QRSessionStatus.EXPIRED, store.get(s.sessionId()).status());
+
+        store.delete(s.sessionId());
+        assertNull(store.get(s.sessionId()));
+        // 键已删除，脚本不会重新创建
+        store.setResponseUrl(s.sessionId(), "https://example.com/cb");
+        assertNull(store.get(s.sessionId()));
+    }
+
+    private static QRSession pending() {
+        long now = System.currentTimeMillis();
+        return QRSession.pending(UUID.randomUUID().toString(), "kc", "client", "tab", now, now + 60_000);
+    }
+}
@@ -0,0 +1,74 @@
+package top.ysit.qrlogin.core.store;
+
+import com.github.fppt.jedismock.RedisServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import top.ysit.qrlogin.config.TestConfigs;
+import top.ysit.qrlogin.core.QRSession;
+import top.ysit.qrlogin.core.SessionStore;
+import top.ysit.qrlogin.core.notify.LocalStatusNotifier;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次完整登录的存储往返（创建、轮询、扫码、确认、删除）吞吐，对照内存存储和 Redis（jedis-mock 进程内服务端）
+ * <p>
+ * 运行：mvn test-compile exec:exec -Djmh.include=SessionStoreBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class SessionStoreBenchmark {
+
+    @Param({"memory", "redis"})
+    public String type;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private RedisServer server;
+    private SessionStore store;
+
+    @Setup
+    public void setUp() throws IOException {
+        if ("redis".equals(type)) {
+            server = RedisServer.newRedisServer().start();
+            store = new RedisSessionStore(TestConfigs.of("redisUri", "redis://" + server.getHost() + ":" + server.getBindPort(),
+                    "redisNamespace", "bench:"), new LocalStatusNotifier());
+        } else {
+            store = new InMemorySessionStore(TestConfigs.of("maxSessions", "100000"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (store instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Benchmark
+    public QRSession loginRoundTrip() {
+        String id = Long.toString(sequence.incrementAndGet());
+        long now = System.currentTimeMillis();
+        store.put(QRSession.pending(id, "kc-" + id, "client", "tab-" + id, now, now + 60_000));
+        store.get(id);
+        store.setScanned(id);
+        store.confirm(id, "user-1", "https://example.com/cb");
+        QRSession done = store.get(id);
+        store.delete(id);
+        return done;
+    }
+}
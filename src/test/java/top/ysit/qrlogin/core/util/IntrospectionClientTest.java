@@ -0,0 +1,79 @@
+package top.ysit.qrlogin.core.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 进程内 HTTP 服务端模拟 introspect 端点
+ */
+class IntrospectionClientTest {
+    private HttpServer server;
+    private volatile int status = 200;
+    private volatile String body;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/introspect", exchange -> {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void activeTokenFallsBackToPayloadEmail() {
+        body = "{\"active\":true,\"username\":\"alice\",\"client_id\":\"app\",\"sub\":\"u1\",\"scope\":\"openid email\",\"exp\":123}";
+        String payload = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("{\"email\":\"alice@example.com\"}".getBytes(StandardCharsets.UTF_8));
+
+        TokenUtil.TokenValidationResult result = introspect("header." + payload + ".signature");
+
+        assertTrue(result.valid());
+        assertEquals("alice", result.username());
+        assertEquals("alice@example.com", result.email());
+        assertEquals(List.of("openid", "email"), result.scope());
+        assertEquals(123L, result.expiration());
+    }
+
+    @Test
+    void inactiveTokenIsInvalidAndServerErrorIsRetryable() {
+        body = "{\"active\":false}";
+        TokenUtil.TokenValidationResult inactive = introspect("opaque");
+        assertFalse(inactive.valid());
+        assertFalse(inactive.retryable());
+
+        status = 503;
+        body = "unavailable";
+        TokenUtil.TokenValidationResult error = introspect("opaque");
+        assertFalse(error.valid());
+        assertTrue(error.retryable());
+    }
+
+    private TokenUtil.TokenValidationResult introspect(String token) {
+        URI endpoint = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/introspect");
+        return new IntrospectionClient(endpoint, "idp", "secret", Duration.ofSeconds(1), Duration.ofSeconds(2))
+                .introspect(token).toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,29 @@
+package top.ysit.qrlogin.core.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * qrImageFormat 各输出的大小，与 QRImageFormatBenchmark 使用相同的内容
+ */
+class QRCodeUtilTest {
+    private static final int SIZE = 512;
+
+    @Test
+    void modulesAreSmallerThanPngAndPngSmallerThanSvg() throws Exception {
+        // 约为版本 5 和版本 10
+        for (int length : new int[]{100, 250}) {
+            String text = ("https://example.com/realms/demo/qr-login-endpoint/?s=" + "x".repeat(length)).substring(0, length);
+            int png = QRCodeUtil.toDataUrl(text, SIZE).length();
+            int svg = QRCodeUtil.toSvgDataUrl(text).length();
+            int modules = QRCodeUtil.toModules(text).get("data").toString().length();
+            String sizes = "length=" + length + " png=" + png + " svg=" + svg + " modules=" + modules;
+
+            assertTrue(modules < png, sizes);
+            assertTrue(png < svg, sizes);
+            // PNG 数据 URL 不超过 2KB，可直接内嵌在登录响应中
+            assertTrue(png < 2048, sizes);
+        }
+    }
+}
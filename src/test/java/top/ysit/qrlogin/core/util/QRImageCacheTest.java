@@ -0,0 +1,40 @@
+package top.ysit.qrlogin.core.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QRImageCacheTest {
+
+    @Test
+    void etagFollowsTheRenderedBytes() {
+        long expireAt = System.currentTimeMillis() + 60_000;
+        byte[] oldKid = "payload kid=a".getBytes(StandardCharsets.UTF_8);
+        byte[] newKid = "payload kid=b".getBytes(StandardCharsets.UTF_8);
+
+        // 两个节点对同一会话渲染出不同内容时 ETag 不同，内容相同时 ETag 相同
+        QRImageCache.Image a = new QRImageCache(10).get("s", "png", "image/png", expireAt, () -> oldKid);
+        QRImageCache.Image b = new QRImageCache(10).get("s", "png", "image/png", expireAt, () -> newKid);
+        QRImageCache.Image c = new QRImageCache(10).get("s", "png", "image/png", expireAt, oldKid::clone);
+
+        assertNotEquals(a.etag(), b.etag());
+        assertEquals(a.etag(), c.etag());
+        assertTrue(a.etag().startsWith("\"") && a.etag().endsWith("\""));
+        assertFalse(a.etag().contains("s-png"));
+    }
+
+    @Test
+    void rendersOncePerSessionAndFormat() {
+        QRImageCache cache = new QRImageCache(10);
+        long expireAt = System.currentTimeMillis() + 60_000;
+        int[] renders = {0};
+
+        cache.get("s", "svg", "image/svg+xml", expireAt, () -> new byte[]{(byte) ++renders[0]});
+        QRImageCache.Image again = cache.get("s", "svg", "image/svg+xml", expireAt, () -> new byte[]{(byte) ++renders[0]});
+
+        assertEquals(1, renders[0]);
+        assertArrayEquals(new byte[]{1}, again.bytes());
+    }
+}
@@ -0,0 +1,51 @@
+package top.ysit.qrlogin.core.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * qrImageFormat 三种输出的 CPU 和分配对照，均为 performLogin 实际返回的形式；各自的字节数由 QRCodeUtilTest 校验
+ * <p>
+ * 运行：mvn test-compile exec:exec -Djmh.include=QRImageFormatBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QRImageFormatBenchmark {
+    private static final int SIZE = 512;
+
+    // 约为版本 5 和版本 10
+    @Param({"100", "250"})
+    public int payloadLength;
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        text = ("https://example.com/realms/demo/qr-login-endpoint/?s=" + "x".repeat(payloadLength)).substring(0, payloadLength);
+    }
+
+    @Benchmark
+    public String png() throws Exception {
+        return QRCodeUtil.toDataUrl(text, SIZE);
+    }
+
+    @Benchmark
+    public String svg() throws Exception {
+        return QRCodeUtil.toSvgDataUrl(text);
+    }
+
+    @Benchmark
+    public Map<String, Object> modules() throws Exception {
+        return QRCodeUtil.toModules(text);
+    }
+}
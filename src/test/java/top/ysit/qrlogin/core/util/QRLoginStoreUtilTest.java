@@ -0,0 +1,41 @@
+package top.ysit.qrlogin.core.util;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.IdentityProviderModel;
+import top.ysit.qrlogin.config.QRLoginRuntime;
+import top.ysit.qrlogin.core.replay.ReplayCache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QRLoginStoreUtilTest {
+
+    @Test
+    void replayCacheIsRebuiltOnlyWhenItsSettingsChange() throws Exception {
+        ReplayCache first = QRLoginStoreUtil.getSharedReplayCache(null, runtime("5", 1));
+        assertTrue(first.firstSeen("scan", "sig", System.currentTimeMillis() / 1000));
+
+        // 快照重建但配置相同：保留已有记录
+        ReplayCache same = QRLoginStoreUtil.getSharedReplayCache(null, runtime("5", 2));
+        assertSame(first, same);
+        assertFalse(same.firstSeen("scan", "sig", System.currentTimeMillis() / 1000));
+
+        // 时间窗口变化：重新构建
+        ReplayCache widened = QRLoginStoreUtil.getSharedReplayCache(null, runtime("60", 3));
+        assertNotSame(first, widened);
+
+        // 未缓存的快照沿用当前实例
+        assertSame(widened, QRLoginStoreUtil.getSharedReplayCache(null, runtime("120", -1)));
+    }
+
+    private static QRLoginRuntime runtime(String timeWindowSeconds, long generation) throws Exception {
+        Map<String, String> config = new HashMap<>();
+        config.put("storeType", "memory");
+        config.put("timeWindowSeconds", timeWindowSeconds);
+        IdentityProviderModel model = new IdentityProviderModel();
+        model.setConfig(config);
+        return QRLoginRuntime.build("realm", model, null, generation);
+    }
+}
@@ -0,0 +1,47 @@
+package top.ysit.qrlogin.core.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.config.TestConfigs;
+import top.ysit.qrlogin.core.QRSession;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * performLogin 生成二维码内容并渲染为内嵌 PNG 的开销，对照 json 和 compact 两种 qrPayloadFormat
+ * <p>
+ * 运行：mvn test-compile exec:exec -Djmh.include=QRPayloadBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QRPayloadBenchmark {
+    private static final int SIZE = 512;
+    private static final String ENDPOINT = "https://sso.example.com/realms/demo/broker/qr/endpoint/";
+
+    @Param({"json", "compact"})
+    public String format;
+
+    private QRLoginConfig cfg;
+    private QRSession session;
+
+    @Setup
+    public void setUp() {
+        cfg = TestConfigs.of("qrPayloadFormat", format);
+        session = QRSession.pending(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "account-console", "tab",
+                0, 120_000);
+    }
+
+    @Benchmark
+    public String payloadAndPng() throws Exception {
+        return QRCodeUtil.toDataUrl(QRPayloadUtil.payload(ENDPOINT, "demo", session, cfg, "kid-1"), SIZE);
+    }
+}
@@ -0,0 +1,80 @@
+package top.ysit.qrlogin.core.util;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import org.junit.jupiter.api.Test;
+import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.config.TestConfigs;
+import top.ysit.qrlogin.core.QRSession;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 紧凑格式经 PNG 渲染后由 ZXing 读回，校验内容可还原并对照 JSON 格式的二维码版本
+ */
+class QRPayloadUtilTest {
+    private static final int SCALE = 4;
+    // 4 模块静区
+    private static final int QUIET_ZONE = 4;
+
+    private final QRSession session = QRSession.pending(UUID.randomUUID().toString(), UUID.randomUUID().toString(),
+            "account-console", "tab", 0, 120_000);
+
+    @Test
+    void compactPayloadRoundTripsThroughZxingAtVersionFour() throws Exception {
+        QRLoginConfig cfg = TestConfigs.of("qrPayloadFormat", "compact");
+        String payload = QRPayloadUtil.payload("https://sso.example.com/realms/demo/broker/qr/endpoint/", "demo", session, cfg, "kid-1");
+
+        BufferedImage image = render(payload);
+        String decoded = decode(image);
+        assertEquals(payload, decoded);
+
+        String[] parts = decoded.split(":");
+        assertEquals("qrl", parts[0]);
+        assertEquals(String.valueOf(QRPayloadUtil.COMPACT_VERSION), parts[1]);
+        assertEquals("demo", parts[2]);
+        ByteBuffer id = ByteBuffer.wrap(Base64.getUrlDecoder().decode(parts[3]));
+        assertEquals(session.sessionId(), new UUID(id.getLong(), id.getLong()).toString());
+        assertEquals(session.kcSessionId(), parts[4]);
+
+        // UUID 形式的 kc_session 下为 70 字符，纠错等级 L 的字节模式需要版本 4（33x33 模块）
+        assertEquals(4, version(image));
+    }
+
+    @Test
+    void compactPayloadNeedsAMuchSmallerVersionThanJson() throws Exception {
+        String endpoint = "https://sso.example.com/realms/demo/broker/qr/endpoint/";
+        String json = QRPayloadUtil.payload(endpoint, "demo", session, TestConfigs.of(), "kid-1");
+        String compact = QRPayloadUtil.payload(endpoint, "demo", session, TestConfigs.of("qrPayloadFormat", "compact"), "kid-1");
+
+        BufferedImage jsonImage = render(json);
+        assertEquals(json, decode(jsonImage));
+        assertTrue(version(jsonImage) >= 2 * version(render(compact)),
+                "json=" + version(jsonImage) + " compact=" + version(render(compact)));
+    }
+
+    private static BufferedImage render(String text) throws Exception {
+        return ImageIO.read(new ByteArrayInputStream(QRPngEncoder.encode(QRCodeUtil.encode(text), SCALE)));
+    }
+
+    private static String decode(BufferedImage image) throws Exception {
+        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(new BufferedImageLuminanceSource(image)));
+        return new QRCodeReader().decode(bitmap, Map.of(DecodeHintType.PURE_BARCODE, Boolean.TRUE)).getText();
+    }
+
+    // 每边模块数为 17 + 4 * 版本
+    private static int version(BufferedImage image) {
+        return (image.getWidth() / SCALE - 2 * QUIET_ZONE - 17) / 4;
+    }
+}
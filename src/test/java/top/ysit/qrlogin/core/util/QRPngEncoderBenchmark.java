@@ -0,0 +1,60 @@
+package top.ysit.qrlogin.core.util;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 512 像素 PNG：{@link QRPngEncoder} 直接编码对照原先的 BufferedImage + ImageIO，均包含矩阵编码
+ * <p>
+ * 运行：mvn test-compile exec:exec -Djmh.include=QRPngEncoderBenchmark，默认附带 gc 分析器的每次分配字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QRPngEncoderBenchmark {
+    private static final int SIZE = 512;
+
+    // 约为版本 5 和版本 10
+    @Param({"100", "250"})
+    public int payloadLength;
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        text = "https://example.com/realms/demo/qr-login-endpoint/?s=" + "x".repeat(payloadLength);
+        text = text.substring(0, payloadLength);
+    }
+
+    @Benchmark
+    public byte[] directEncoder() throws Exception {
+        return QRCodeUtil.toPng(text, SIZE);
+    }
+
+    @Benchmark
+    public byte[] imageIO() throws Exception {
+        BitMatrix matrix = new QRCodeWriter().encode(text, BarcodeFormat.QR_CODE, SIZE, SIZE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(MatrixToImageWriter.toBufferedImage(matrix), "png", out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,82 @@
+package top.ysit.qrlogin.core.util;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 用 ImageIO 读回 {@link QRPngEncoder} 的输出，逐像素对照矩阵并用 ZXing 解码
+ */
+class QRPngEncoderTest {
+    // 纠错等级 L、字节模式下依次为版本 1、5、10、22、40
+    private static final int[] PAYLOAD_LENGTHS = {10, 100, 250, 1000, 2900};
+    private static final int[] SCALES = {1, 2, 3, 7, 13};
+
+    @Test
+    void decodesAcrossVersionsAndScales() throws Exception {
+        for (int length : PAYLOAD_LENGTHS) {
+            String text = payload(length);
+            BitMatrix matrix = QRCodeUtil.encode(text);
+            for (int scale : SCALES) {
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(QRPngEncoder.encode(matrix, scale)));
+                String where = "modules=" + matrix.getWidth() + " scale=" + scale;
+
+                assertEquals(matrix.getWidth() * scale, image.getWidth(), where);
+                assertEquals(matrix.getHeight() * scale, image.getHeight(), where);
+                assertPixelsMatch(matrix, scale, image, where);
+                assertEquals(text, decode(image).getText(), where);
+            }
+        }
+    }
+
+    @Test
+    void streamingWriteProducesTheSameBytes() throws Exception {
+        BitMatrix matrix = QRCodeUtil.encode(payload(300));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        QRPngEncoder.write(matrix, 5, out);
+        assertArrayEquals(QRPngEncoder.encode(matrix, 5), out.toByteArray());
+    }
+
+    @Test
+    void rejectsNonPositiveScale() throws Exception {
+        BitMatrix matrix = QRCodeUtil.encode("x");
+        assertThrows(IllegalArgumentException.class, () -> QRPngEncoder.encode(matrix, 0));
+    }
+
+    private static void assertPixelsMatch(BitMatrix matrix, int scale, BufferedImage image, String where) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                boolean dark = (image.getRGB(x, y) & 0xffffff) == 0;
+                if (dark != matrix.get(x / scale, y / scale)) {
+                    fail(where + " pixel " + x + "," + y);
+                }
+            }
+        }
+    }
+
+    private static Result decode(BufferedImage image) throws Exception {
+        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(new BufferedImageLuminanceSource(image)));
+        return new QRCodeReader().decode(bitmap, Map.of(DecodeHintType.PURE_BARCODE, Boolean.TRUE));
+    }
+
+    private static String payload(int length) {
+        StringBuilder sb = new StringBuilder("https://example.com/realms/demo/qr-login-endpoint/?s=");
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        return sb.substring(0, length);
+    }
+}
@@ -0,0 +1,28 @@
+package top.ysit.qrlogin.core.util;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import top.ysit.qrlogin.testsupport.Stubs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenUtilTest {
+
+    @Test
+    void lookupFailureIsRetryableRatherThanInvalid() {
+        RealmModel realm = Stubs.stub(RealmModel.class, (method, args) -> "getName".equals(method) ? "demo" : null);
+        KeycloakContext context = Stubs.stub(KeycloakContext.class, (method, args) -> switch (method) {
+            case "getRealm" -> realm;
+            case "getUri" -> throw new IllegalStateException("uri unavailable");
+            default -> null;
+        });
+        KeycloakSession session = Stubs.stub(KeycloakSession.class, (method, args) -> "getContext".equals(method) ? context : null);
+
+        TokenUtil.TokenValidationResult result = TokenUtil.verifyTokenLocally("header.payload.signature", session, "app");
+
+        assertFalse(result.valid());
+        assertTrue(result.retryable());
+    }
+}
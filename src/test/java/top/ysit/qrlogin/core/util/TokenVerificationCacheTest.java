@@ -0,0 +1,83 @@
+package top.ysit.qrlogin.core.util;
+
+import org.junit.jupiter.api.Test;
+
+import top.ysit.qrlogin.core.resilience.exception.CallRejectedException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenVerificationCacheTest {
+    private static final long TTL_MS = 60_000;
+    private static final long WAIT_MS = 1_000;
+
+    private final TokenVerificationCache cache = new TokenVerificationCache(100);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void validResultIsReusedWithinTheSameScope() {
+        assertTrue(cache.verify("realm-a|local", "token", TTL_MS, TTL_MS, WAIT_MS, this::valid).valid());
+        assertTrue(cache.verify("realm-a|local", "token", TTL_MS, TTL_MS, WAIT_MS, this::invalid).valid());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void resultFromOneScopeIsNotReusedInAnother() {
+        assertTrue(cache.verify("realm-a|local", "token", TTL_MS, TTL_MS, WAIT_MS, this::valid).valid());
+        assertFalse(cache.verify("realm-b|local", "token", TTL_MS, TTL_MS, WAIT_MS, this::invalid).valid());
+        assertFalse(cache.verify("realm-a|introspection|https://idp/introspect|app", "token", TTL_MS, TTL_MS, WAIT_MS, this::invalid).valid());
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void retryableErrorsAreNotCached() {
+        cache.verify("realm-a|local", "token", TTL_MS, TTL_MS, WAIT_MS, () -> {
+            loads.incrementAndGet();
+            return TokenUtil.TokenValidationResult.error("timeout");
+        });
+        assertTrue(cache.verify("realm-a|local", "token", TTL_MS, TTL_MS, WAIT_MS, this::valid).valid());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void coalescedWaiterGivesUpAfterMaxWait() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<TokenUtil.TokenValidationResult> owner = CompletableFuture.supplyAsync(() ->
+                cache.verify("realm-a|local", "token", TTL_MS, TTL_MS, WAIT_MS, () -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return valid();
+                }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // 等待者超时被拒绝，不影响正在执行的校验及其结果
+        assertThrows(CallRejectedException.class,
+                () -> cache.verify("realm-a|local", "token", TTL_MS, TTL_MS, 50, this::invalid));
+        assertFalse(owner.isDone());
+        release.countDown();
+        assertTrue(owner.get(5, TimeUnit.SECONDS).valid());
+        assertTrue(cache.verify("realm-a|local", "token", TTL_MS, TTL_MS, WAIT_MS, this::invalid).valid());
+        assertEquals(1, loads.get());
+    }
+
+    private TokenUtil.TokenValidationResult valid() {
+        loads.incrementAndGet();
+        return TokenUtil.TokenValidationResult.valid("alice", "app", null, "sub", List.of(),
+                System.currentTimeMillis() / 1000 + 300);
+    }
+
+    private TokenUtil.TokenValidationResult invalid() {
+        loads.incrementAndGet();
+        return TokenUtil.TokenValidationResult.invalid("bad");
+    }
+}
@@ -0,0 +1,73 @@
+package top.ysit.qrlogin.idp;
+
+import org.keycloak.models.IdentityProviderModel;
+import org.keycloak.models.IdentityProviderStorageProvider;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import top.ysit.qrlogin.config.QRLoginRuntime;
+import top.ysit.qrlogin.core.util.QRLoginStoreUtil;
+import top.ysit.qrlogin.testsupport.Stubs;
+
+import java.security.SignatureException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每次登录创建身份提供者的开销：复用 realm 运行时快照，对照每次复制配置并构建签名器（引入快照之前的做法）
+ * <p>
+ * 运行：mvn test-compile exec:exec -Djmh.include=QRLoginIdentityProviderFactoryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QRLoginIdentityProviderFactoryBenchmark {
+
+    private final QRLoginIdentityProviderFactory factory = new QRLoginIdentityProviderFactory();
+    private KeycloakSession session;
+    private IdentityProviderModel model;
+
+    @Setup
+    public void setUp() {
+        model = factory.createConfig();
+        model.setAlias(QRLoginIdentityProviderFactory.PROVIDER_ID);
+        model.setInternalId("idp-1");
+        model.getConfig().put("storeType", "memory");
+        model.getConfig().put("hmacKeys", "k1=secret-1\nk2=secret-2|2020-01-01T00:00:00Z");
+
+        RealmModel realm = Stubs.stub(RealmModel.class, (method, args) -> switch (method) {
+            case "getId" -> "realm-1";
+            case "getName" -> "bench";
+            default -> null;
+        });
+        KeycloakContext context = Stubs.stub(KeycloakContext.class, (method, args) -> "getRealm".equals(method) ? realm : null);
+        IdentityProviderStorageProvider providers = Stubs.stub(IdentityProviderStorageProvider.class,
+                (method, args) -> "getByAlias".equals(method) ? model : null);
+        session = Stubs.stub(KeycloakSession.class, (method, args) -> switch (method) {
+            case "getContext" -> context;
+            case "getProvider" -> args[0] == IdentityProviderStorageProvider.class ? providers : null;
+            default -> null;
+        });
+        factory.create(session, model);
+    }
+
+    @Benchmark
+    public QRLoginIdentityProvider cachedRuntime() {
+        return factory.create(session, model);
+    }
+
+    @Benchmark
+    public QRLoginIdentityProvider buildPerCall() throws SignatureException {
+        QRLoginRuntime runtime = QRLoginRuntime.build("bench", model,
+                QRLoginStoreUtil.getSharedSessionStore(session, session.getContext().getRealm()), -1);
+        return new QRLoginIdentityProvider(session, runtime, QRLoginStoreUtil.getSharedReplayCache(session, runtime),
+                QRLoginStoreUtil.getSharedDeviceKeys(session), QRLoginStoreUtil.getImageCache(),
+                QRLoginStoreUtil.getPrerenderer(runtime.config()));
+    }
+}
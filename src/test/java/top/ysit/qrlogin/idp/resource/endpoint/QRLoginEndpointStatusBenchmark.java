@@ -0,0 +1,80 @@
+package top.ysit.qrlogin.idp.resource.endpoint;
+
+import jakarta.ws.rs.core.Response;
+import org.keycloak.models.IdentityProviderModel;
+import org.keycloak.models.KeycloakSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import top.ysit.qrlogin.config.QRLoginConfig;
+import top.ysit.qrlogin.config.QRLoginRuntime;
+import top.ysit.qrlogin.core.QRSession;
+import top.ysit.qrlogin.core.device.DeviceKeyRegistry;
+import top.ysit.qrlogin.core.notify.StatusWaiters;
+import top.ysit.qrlogin.core.replay.LocalReplayCache;
+import top.ysit.qrlogin.core.resilience.PollAdvisor;
+import top.ysit.qrlogin.core.store.InMemorySessionStore;
+import top.ysit.qrlogin.core.util.QRImageCache;
+import top.ysit.qrlogin.core.util.StatusBodies;
+import top.ysit.qrlogin.testsupport.Stubs;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * qr/status 轮询路径：内存存储、桩 KeycloakSession，对照完整响应和 If-None-Match 命中的 304
+ * <p>
+ * 运行：mvn test-compile exec:exec -Djmh.include=QRLoginEndpointStatusBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class QRLoginEndpointStatusBenchmark {
+
+    private QRLoginEndpoint endpoint;
+    private String qrSession;
+    private String timestamp;
+    private String etag;
+
+    @Setup
+    public void setUp() throws Exception {
+        // 时间窗口放宽到一小时，避免基准运行超过默认窗口后时间戳校验失败
+        Map<String, String> config = new HashMap<>();
+        config.put("storeType", "memory");
+        config.put("timeWindowSeconds", "3600");
+        IdentityProviderModel model = new IdentityProviderModel();
+        model.setConfig(config);
+        QRLoginConfig cfg = new QRLoginConfig(model);
+
+        InMemorySessionStore store = new InMemorySessionStore(cfg);
+        QRLoginRuntime runtime = QRLoginRuntime.build("bench", model, store, 0);
+        KeycloakSession session = Stubs.stub(KeycloakSession.class, (method, args) -> null);
+        endpoint = new QRLoginEndpoint(session, null, runtime, new StatusWaiters(), new LocalReplayCache(3600, 1000),
+                new DeviceKeyRegistry(1000), new QRImageCache(100), new StatusBodies(100), new PollAdvisor());
+
+        long now = System.currentTimeMillis();
+        qrSession = UUID.randomUUID().toString();
+        store.put(QRSession.pending(qrSession, "kc", "client", "tab", now, now + TimeUnit.HOURS.toMillis(1)));
+        timestamp = String.valueOf(now / 1000);
+        etag = endpoint.status("kc", qrSession, timestamp, null).getHeaderString("ETag");
+        if (etag == null) {
+            throw new IllegalStateException("qr/status did not return 200 with an ETag");
+        }
+    }
+
+    @Benchmark
+    public Response fullResponse() {
+        return endpoint.status("kc", qrSession, timestamp, null);
+    }
+
+    @Benchmark
+    public Response notModified() {
+        return endpoint.status("kc", qrSession, timestamp, etag);
+    }
+}
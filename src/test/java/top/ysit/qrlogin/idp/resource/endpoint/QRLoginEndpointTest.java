@@ -0,0 +1,36 @@
+package top.ysit.qrlogin.idp.resource.endpoint;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * If-None-Match 解析：逗号分隔的列表、通配符和弱比较
+ */
+class QRLoginEndpointTest {
+
+    @Test
+    void matchesAnyTagInTheList() {
+        assertTrue(QRLoginEndpoint.etagMatches("\"abc\"", "\"abc\""));
+        assertTrue(QRLoginEndpoint.etagMatches("\"old\", \"abc\"", "\"abc\""));
+        assertTrue(QRLoginEndpoint.etagMatches("\"old\",W/\"abc\"", "\"abc\""));
+        assertTrue(QRLoginEndpoint.etagMatches("*", "\"abc\""));
+    }
+
+    @Test
+    void comparesWholeTagsWeakly() {
+        assertTrue(QRLoginEndpoint.etagMatches("\"7\"", "W/\"7\""));
+        assertTrue(QRLoginEndpoint.etagMatches("W/\"7\"", "W/\"7\""));
+        // 子串不算匹配
+        assertFalse(QRLoginEndpoint.etagMatches("\"17\"", "W/\"7\""));
+        assertFalse(QRLoginEndpoint.etagMatches("\"xabcx\"", "\"abc\""));
+        assertFalse(QRLoginEndpoint.etagMatches("\"ab\", \"bc\"", "\"abc\""));
+    }
+
+    @Test
+    void malformedHeaderDoesNotMatch() {
+        assertFalse(QRLoginEndpoint.etagMatches("abc", "\"abc\""));
+        assertFalse(QRLoginEndpoint.etagMatches("\"abc", "\"abc\""));
+        assertFalse(QRLoginEndpoint.etagMatches("", "\"abc\""));
+    }
+}
@@ -0,0 +1,49 @@
+package top.ysit.qrlogin.testsupport;
+
+import java.lang.reflect.Proxy;
+import java.util.function.BiFunction;
+
+/**
+ * 基于动态代理的接口桩，用于 KeycloakSession、UserModel 等方法很多但测试只用到少数几个的接口。
+ * 未处理的方法返回 null 或基本类型的零值。
+ */
+public final class Stubs {
+
+    private Stubs() {
+    }
+
+    /**
+     * @param answer 方法名和参数 -> 返回值
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T stub(Class<T> type, BiFunction<String, Object[], Object> answer) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + "Stub";
+                default:
+            }
+            Object result = answer.apply(method.getName(), args == null ? new Object[0] : args);
+            if (result == null && method.getReturnType().isPrimitive()) {
+                return zero(method.getReturnType());
+            }
+            return result;
+        });
+    }
+
+    private static Object zero(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == void.class) return null;
+        if (type == char.class) return '\0';
+        if (type == long.class) return 0L;
+        if (type == int.class) return 0;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        if (type == float.class) return 0f;
+        return 0d;
+    }
+}